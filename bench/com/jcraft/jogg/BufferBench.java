@@ -0,0 +1,66 @@
+package com.jcraft.jogg;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The bit reader on its own, over a packet sized run of random bytes.
+// read takes the field widths a Vorbis header and floor use, look32 and
+// adv are how a codeword is taken, and read1 is the bitwise tree walk.
+// Scores are per value read.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class BufferBench{
+  static final int READS=4096;
+
+  byte[] data=new byte[READS*4+8];
+  int[] widths=new int[READS];
+  Buffer opb=new Buffer();
+
+  @Setup
+  public void setup(){
+    Random r=new Random(1);
+    r.nextBytes(data);
+    for(int i=0; i<READS; i++){
+      widths[i]=1+r.nextInt(16);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READS)
+  public int read(){
+    opb.readinit(data, data.length);
+    int sum=0;
+    for(int i=0; i<READS; i++){
+      sum+=opb.read(widths[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READS)
+  public int look32(){
+    opb.readinit(data, data.length);
+    int sum=0;
+    for(int i=0; i<READS; i++){
+      sum+=opb.look32()&0xff;
+      opb.adv(widths[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READS)
+  public int read1(){
+    opb.readinit(data, data.length);
+    int sum=0;
+    for(int i=0; i<READS; i++){
+      sum+=opb.read1();
+    }
+    return sum;
+  }
+}
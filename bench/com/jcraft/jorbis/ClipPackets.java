@@ -0,0 +1,75 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+// One of the bundled clips split into packets, with the decoder set up for
+// it, so a benchmark can feed a single stage of the pipeline without
+// measuring the ogg framing in front of it.
+class ClipPackets{
+  // where the clips are; run from the project directory or set -Dclips.dir
+  static final String DIR=System.getProperty("clips.dir", "clips");
+
+  final byte[] file;
+  final Info vi=new Info();
+  final Comment vc=new Comment();
+  final Packet[] packets; // the audio packets, each with its own bytes
+
+  ClipPackets(String name) throws IOException{
+    file=Files.readAllBytes(new File(DIR, name+".ogg").toPath());
+    SyncState oy=new SyncState();
+    StreamState os=new StreamState();
+    Page og=new Page();
+    Packet op=new Packet();
+    ArrayList<Packet> audio=new ArrayList<>();
+
+    oy.init();
+    int index=oy.buffer(file.length);
+    System.arraycopy(file, 0, oy.data, index, file.length);
+    oy.wrote(file.length);
+    vi.init();
+    vc.init();
+    int headers=0;
+    while(oy.pageout(og)==1){
+      if(headers==0){
+        os.init(og.serialno());
+      }
+      os.pagein(og);
+      while(os.packetout(op)==1){
+        if(headers<3){
+          if(vi.synthesis_headerin(vc, op)<0){
+            throw new IOException(name+" is not vorbis");
+          }
+          headers++;
+        }
+        else{
+          audio.add(copy(op));
+        }
+      }
+    }
+    packets=audio.toArray(new Packet[audio.size()]);
+  }
+
+  static Packet copy(Packet op){
+    Packet p=new Packet();
+    p.packet_base=new byte[op.bytes];
+    System.arraycopy(op.packet_base, op.packet, p.packet_base, 0, op.bytes);
+    p.packet=0;
+    p.bytes=op.bytes;
+    p.b_o_s=op.b_o_s;
+    p.e_o_s=op.e_o_s;
+    p.granulepos=op.granulepos;
+    p.packetno=op.packetno;
+    return p;
+  }
+
+  // a decoder ready for the first audio packet
+  DspState dsp(){
+    DspState vd=new DspState();
+    vd.synthesis_init(vi);
+    return vd;
+  }
+}
@@ -0,0 +1,44 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// CodeBook.decode on a random bitstream, cycling through every codebook
+// of a clip's setup header.  Scores are per decoded codeword.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class CodeBookBench{
+  static final int WORDS=4096;
+
+  @Param({"bell", "double-jet-flyover", "sick-dragon", "dorm-door-opening"})
+  String clip;
+
+  CodeBook[] books;
+  byte[] bits;
+  Buffer opb=new Buffer();
+
+  @Setup
+  public void setup() throws Exception{
+    ClipPackets c=new ClipPackets(clip);
+    books=c.dsp().fullbooks;
+    bits=new byte[WORDS*4]; // codewords are at most 32 bits long
+    new Random(1).nextBytes(bits);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(WORDS)
+  public int decode(){
+    opb.readinit(bits, bits.length);
+    int sum=0;
+    for(int i=0; i<WORDS; i++){
+      sum+=books[i%books.length].decode(opb);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,93 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Decoding a whole clip: DspState.synthesis_blockin alone, over blocks
+// that were already through Block.synthesis; every packet through both;
+// and VorbisFile.read to 16 bit PCM, framing included.  Scores are the
+// time for one whole clip.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class DecodeBench{
+  @Param({"bell", "double-jet-flyover", "sick-dragon", "dorm-door-opening"})
+  String clip;
+
+  ClipPackets c;
+  DspState vd;
+  Block vb;
+  Block[] blocks; // one per packet, already synthesized
+  float[][][] _pcm=new float[1][][];
+  int[] _index;
+  byte[] pcm=new byte[8192];
+
+  @Setup
+  public void setup() throws Exception{
+    c=new ClipPackets(clip);
+    DspState d=c.dsp();
+    blocks=new Block[c.packets.length];
+    for(int p=0; p<blocks.length; p++){
+      blocks[p]=new Block(d);
+      blocks[p].synthesis(c.packets[p]);
+    }
+    _index=new int[c.vi.channels];
+  }
+
+  @Setup(Level.Invocation)
+  public void restart(){
+    vd=c.dsp();
+    vb=new Block(vd);
+    for(Block b : blocks){
+      b.vd=vd;
+    }
+  }
+
+  // hand back everything the DspState has ready
+  int drain(){
+    int samples, total=0;
+    while((samples=vd.synthesis_pcmout(_pcm, _index))>0){
+      vd.synthesis_read(samples);
+      total+=samples;
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int synthesisBlockin(){
+    int total=0;
+    for(Block b : blocks){
+      vd.synthesis_blockin(b);
+      total+=drain();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int synthesis(){
+    int total=0;
+    for(Packet op : c.packets){
+      if(vb.synthesis(op)==0){
+        vd.synthesis_blockin(vb);
+      }
+      total+=drain();
+    }
+    return total;
+  }
+
+  @Benchmark
+  public long vorbisFileRead() throws Exception{
+    VorbisFile vf=new VorbisFile(new ByteArrayInputStream(c.file), null, 0);
+    long total=0;
+    int n;
+    while((n=vf.read(pcm, pcm.length, 0, 2, 1, null))>0){
+      total+=n;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,185 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The per sample loops of synthesis (see Loops) over a whole stereo clip,
+// block by block: undoing the coupling, windowing and overlap/add.  Their
+// input is the clip's residue, as the coupling gets it, so the signs it
+// selects on are those of real spectra.  coupleBranchy is the four way
+// branch the coupling used to be.  Which Loops runs is up to Simd: add
+// -jvmArgsAppend --add-modules=jdk.incubator.vector for the vector ones.
+// Scores are the time for one whole clip.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class LoopsBench{
+  @Param({"bell", "shotgun"}) // stereo, 44.1 kHz
+  String clip;
+
+  float[] left, right; // the residue of every block, one after another
+  int[] size; // n/2 of each block
+  float[][] window=new float[2][];
+  float[] m, a;
+  Loops loops;
+
+  @Setup
+  public void setup() throws Exception{
+    ClipPackets c=new ClipPackets(clip);
+    Info vi=c.vi;
+    DspState vd=c.dsp();
+    Block vb=new Block(vd);
+    size=new int[c.packets.length];
+    left=new float[c.packets.length*vi.blocksizes[1]/2];
+    right=new float[left.length];
+    float[][] bundle=new float[vi.channels][];
+    int[] zero=new int[vi.channels];
+    int[] nonzero=new int[vi.channels];
+    int at=0;
+    // Mapping0.inverse up to the coupling
+    for(int p=0; p<c.packets.length; p++){
+      Packet op=c.packets[p];
+      vb.opb.readinit(op.packet_base, op.packet, op.bytes);
+      vb.opb.read(1);
+      vb.mode=vb.opb.read(vd.modebits);
+      vb.W=vi.mode_param[vb.mode].blockflag;
+      if(vb.W!=0){
+        vb.lW=vb.opb.read(1);
+        vb.nW=vb.opb.read(1);
+      }
+      else{
+        vb.lW=0;
+        vb.nW=0;
+      }
+      int n=vb.pcmend=vi.blocksizes[vb.W];
+      if(vb.pcm.length<vi.channels){
+        vb.pcm=new float[vi.channels][];
+      }
+      for(int i=0; i<vi.channels; i++){
+        if(vb.pcm[i]==null||vb.pcm[i].length<n){
+          vb.pcm[i]=new float[vi.blocksizes[1]];
+        }
+      }
+      Mapping0.LookMapping0 look=(Mapping0.LookMapping0)vd.mode[vb.mode];
+      Mapping0.InfoMapping0 info=look.map;
+      for(int i=0; i<vi.channels; i++){
+        int submap=info.chmuxlist[i];
+        Object memo=look.floor_func[submap].inverse1(vb,
+            look.floor_look[submap], null);
+        nonzero[i]=(memo!=null ? 1 : 0);
+        java.util.Arrays.fill(vb.pcm[i], 0, n/2, 0.f);
+      }
+      for(int i=0; i<info.coupling_steps; i++){
+        if(nonzero[info.coupling_mag[i]]!=0||nonzero[info.coupling_ang[i]]!=0){
+          nonzero[info.coupling_mag[i]]=1;
+          nonzero[info.coupling_ang[i]]=1;
+        }
+      }
+      for(int i=0; i<info.submaps; i++){
+        int ch=0;
+        for(int j=0; j<vi.channels; j++){
+          if(info.chmuxlist[j]==i){
+            zero[ch]=nonzero[j];
+            bundle[ch++]=vb.pcm[j];
+          }
+        }
+        look.residue_func[i].inverse(vb, look.residue_look[i], bundle, zero, ch);
+      }
+      size[p]=n/2;
+      System.arraycopy(vb.pcm[0], 0, left, at, n/2);
+      System.arraycopy(vb.pcm[1], 0, right, at, n/2);
+      at+=n/2;
+    }
+    for(int w=0; w<2; w++){
+      window[w]=DspState.window(0, vi.blocksizes[w], vi.blocksizes[w]/2,
+          vi.blocksizes[w]/2);
+    }
+    m=new float[vi.blocksizes[1]/2];
+    a=new float[m.length];
+    loops=Simd.loops();
+  }
+
+  void load(int at, int n){
+    System.arraycopy(left, at, m, 0, n);
+    System.arraycopy(right, at, a, 0, n);
+  }
+
+  @Benchmark
+  public float couple(){
+    float sum=0;
+    for(int b=0, at=0; b<size.length; at+=size[b++]){
+      int n=size[b];
+      load(at, n);
+      loops.couple(m, a, n);
+      sum+=m[0]+a[n-1];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float coupleBranchy(){
+    float sum=0;
+    for(int b=0, at=0; b<size.length; at+=size[b++]){
+      int n=size[b];
+      load(at, n);
+      for(int j=0; j<n; j++){
+        float mag=m[j];
+        float ang=a[j];
+        if(mag>0){
+          if(ang>0){
+            m[j]=mag;
+            a[j]=mag-ang;
+          }
+          else{
+            a[j]=mag;
+            m[j]=mag+ang;
+          }
+        }
+        else{
+          if(ang>0){
+            m[j]=mag;
+            a[j]=mag+ang;
+          }
+          else{
+            a[j]=mag;
+            m[j]=mag-ang;
+          }
+        }
+      }
+      sum+=m[0]+a[n-1];
+    }
+    return sum;
+  }
+
+  // over the first half of the window, as long as the block's residue
+  @Benchmark
+  public float window(){
+    float sum=0;
+    for(int b=0, at=0; b<size.length; at+=size[b++]){
+      int n=size[b];
+      float[] w=window[n==m.length ? 1 : 0];
+      load(at, n);
+      loops.window(m, w, n);
+      loops.window(a, w, n);
+      sum+=m[0]+a[n-1];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float overlapAdd(){
+    float sum=0;
+    for(int b=0, at=0; b<size.length; at+=size[b++]){
+      int n=size[b];
+      load(at, n);
+      loops.add(m, 0, left, at, n);
+      loops.add(a, 0, right, at, n);
+      sum+=m[0]+a[n-1];
+    }
+    return sum;
+  }
+}
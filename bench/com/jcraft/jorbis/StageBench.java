@@ -0,0 +1,202 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The stages of Mapping0.inverse one at a time, each run over every packet
+// of a clip: floor unpacking (Floor1.inverse1), residue decode
+// (Residue0._01inverse / _2inverse), floor curve rendering
+// (Floor1.inverse2) and the inverse MDCT.  Every stage is fed the bits it
+// would see in a real decode; the packet is parsed up to that point once,
+// in setup.  Scores are the time for one whole clip.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class StageBench{
+  @Param({"bell", "double-jet-flyover", "sick-dragon", "dorm-door-opening"})
+  String clip;
+
+  ClipPackets c;
+  DspState vd;
+  Block vb;
+
+  // per packet
+  int[] mode, W, floorStart, residueStart;
+  Object[][] floormemo;
+  int[][] nonzero;
+
+  float[][] pcmbundle;
+  int[] zerobundle;
+  Object[] memo;
+  float[][] spectrum; // a random spectrum for each block size
+  float[] out;
+  float[] x, w; // Mdct scratch
+
+  @Setup
+  public void setup() throws Exception{
+    c=new ClipPackets(clip);
+    vd=c.dsp();
+    vb=new Block(vd);
+    Info vi=c.vi;
+    int n=c.packets.length;
+    mode=new int[n];
+    W=new int[n];
+    floorStart=new int[n];
+    residueStart=new int[n];
+    floormemo=new Object[n][];
+    nonzero=new int[n][];
+    for(int p=0; p<n; p++){
+      header(p);
+      mode[p]=vb.mode;
+      W[p]=vb.W;
+      floorStart[p]=vb.opb.bits();
+      Mapping0.LookMapping0 look=(Mapping0.LookMapping0)vd.mode[vb.mode];
+      Mapping0.InfoMapping0 info=look.map;
+      floormemo[p]=new Object[vi.channels];
+      nonzero[p]=new int[vi.channels];
+      for(int i=0; i<vi.channels; i++){
+        int submap=info.chmuxlist[i];
+        floormemo[p][i]=look.floor_func[submap].inverse1(vb,
+            look.floor_look[submap], null);
+        nonzero[p][i]=(floormemo[p][i]!=null ? 1 : 0);
+      }
+      for(int i=0; i<info.coupling_steps; i++){
+        if(nonzero[p][info.coupling_mag[i]]!=0
+            ||nonzero[p][info.coupling_ang[i]]!=0){
+          nonzero[p][info.coupling_mag[i]]=1;
+          nonzero[p][info.coupling_ang[i]]=1;
+        }
+      }
+      residueStart[p]=vb.opb.bits();
+    }
+
+    pcmbundle=new float[vi.channels][];
+    zerobundle=new int[vi.channels];
+    memo=new Object[vi.channels];
+    Random r=new Random(1);
+    spectrum=new float[2][];
+    for(int w=0; w<2; w++){
+      spectrum[w]=new float[vi.blocksizes[w]];
+      for(int i=0; i<vi.blocksizes[w]/2; i++){
+        spectrum[w][i]=(float)r.nextGaussian()/(i+1);
+      }
+    }
+    out=new float[vi.blocksizes[1]];
+    x=new float[vi.blocksizes[1]/2];
+    w=new float[vi.blocksizes[1]/2];
+  }
+
+  // what Block.synthesis does before handing the packet to the mapping
+  void header(int p){
+    Packet op=c.packets[p];
+    vb.opb.readinit(op.packet_base, op.packet, op.bytes);
+    vb.opb.read(1);
+    vb.mode=vb.opb.read(vd.modebits);
+    vb.W=c.vi.mode_param[vb.mode].blockflag;
+    if(vb.W!=0){
+      vb.lW=vb.opb.read(1);
+      vb.nW=vb.opb.read(1);
+    }
+    else{
+      vb.lW=0;
+      vb.nW=0;
+    }
+    vb.pcmend=c.vi.blocksizes[vb.W];
+    if(vb.pcm.length<c.vi.channels){
+      vb.pcm=new float[c.vi.channels][];
+    }
+    for(int i=0; i<c.vi.channels; i++){
+      if(vb.pcm[i]==null||vb.pcm[i].length<vb.pcmend){
+        vb.pcm[i]=new float[c.vi.blocksizes[1]];
+      }
+    }
+  }
+
+  // put the block back where the packet's bits for a stage begin
+  void seek(int p, int bits){
+    Packet op=c.packets[p];
+    vb.opb.readinit(op.packet_base, op.packet, op.bytes);
+    vb.opb.adv(bits);
+    vb.mode=mode[p];
+    vb.W=W[p];
+    vb.pcmend=c.vi.blocksizes[W[p]];
+  }
+
+  @Benchmark
+  public int floorInverse1(){
+    int nonnull=0;
+    for(int p=0; p<c.packets.length; p++){
+      seek(p, floorStart[p]);
+      Mapping0.LookMapping0 look=(Mapping0.LookMapping0)vd.mode[mode[p]];
+      for(int i=0; i<c.vi.channels; i++){
+        int submap=look.map.chmuxlist[i];
+        memo[i]=look.floor_func[submap].inverse1(vb, look.floor_look[submap],
+            memo[i]);
+        if(memo[i]!=null)
+          nonnull++;
+      }
+    }
+    return nonnull;
+  }
+
+  @Benchmark
+  public float floorInverse2(){
+    float sum=0;
+    for(int p=0; p<c.packets.length; p++){
+      vb.mode=mode[p];
+      vb.W=W[p];
+      Mapping0.LookMapping0 look=(Mapping0.LookMapping0)vd.mode[mode[p]];
+      int n=c.vi.blocksizes[W[p]]/2;
+      for(int i=0; i<c.vi.channels; i++){
+        int submap=look.map.chmuxlist[i];
+        java.util.Arrays.fill(out, 0, n, 1.f);
+        look.floor_func[submap].inverse2(vb, look.floor_look[submap],
+            floormemo[p][i], out);
+        sum+=out[n/2];
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float residueInverse(){
+    float sum=0;
+    for(int p=0; p<c.packets.length; p++){
+      seek(p, residueStart[p]);
+      Mapping0.LookMapping0 look=(Mapping0.LookMapping0)vd.mode[mode[p]];
+      Mapping0.InfoMapping0 info=look.map;
+      int n=vb.pcmend;
+      for(int i=0; i<info.submaps; i++){
+        int ch_in_bundle=0;
+        for(int j=0; j<c.vi.channels; j++){
+          if(info.chmuxlist[j]==i){
+            zerobundle[ch_in_bundle]=nonzero[p][j];
+            java.util.Arrays.fill(vb.pcm[j], 0, n/2, 0.f);
+            pcmbundle[ch_in_bundle++]=vb.pcm[j];
+          }
+        }
+        look.residue_func[i].inverse(vb, look.residue_look[i], pcmbundle,
+            zerobundle, ch_in_bundle);
+      }
+      sum+=vb.pcm[0][n/4];
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public float mdctBackward(){
+    float sum=0;
+    for(int p=0; p<c.packets.length; p++){
+      for(int i=0; i<c.vi.channels; i++){
+        ((Mdct)vd.transform[W[p]][0]).backward(spectrum[W[p]], out, x, w);
+        sum+=out[1];
+      }
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,39 @@
+package edu.stevens.leansound;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Time to get a sound library ready to play: scanning the clips directory
+ * (reading every file and probing its headers), and opening the saved
+ * database with fastLoad.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadSoundsBench {
+    static final String DIR = System.getProperty("clips.dir", "clips");
+
+    File db;
+
+    @Setup
+    public void setup() throws Exception {
+        db = File.createTempFile("bench", ".db");
+        db.deleteOnExit();
+        new LoadSounds(db.getPath(), DIR).save();
+    }
+
+    @Benchmark
+    public LoadSounds loadDirectory() {
+        return new LoadSounds(db.getPath(), DIR);
+    }
+
+    @Benchmark
+    public LoadSounds fastLoad() throws Exception {
+        return LoadSounds.fastLoad(db.getPath());
+    }
+}
@@ -0,0 +1,75 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// Loops with the Vector API; the selects of the scalar coupling become
+// blends under a mask.  Any samples left over after the last whole vector
+// go through Loops.  Selected by Simd.
+class VectorLoops extends Loops{
+  private static final VectorSpecies<Float> SPECIES=FloatVector.SPECIES_PREFERRED;
+
+  void couple(float[] pcmM, float[] pcmA, int n){
+    int end=SPECIES.loopBound(n);
+    for(int j=0; j<end; j+=SPECIES.length()){
+      FloatVector mag=FloatVector.fromArray(SPECIES, pcmM, j);
+      FloatVector ang=FloatVector.fromArray(SPECIES, pcmA, j);
+      VectorMask<Float> pos=mag.compare(VectorOperators.GT, 0.f);
+      FloatVector d=ang.neg().blend(ang, pos);
+      VectorMask<Float> up=ang.compare(VectorOperators.GT, 0.f);
+      mag.add(d).blend(mag, up).intoArray(pcmM, j);
+      mag.blend(mag.sub(d), up).intoArray(pcmA, j);
+    }
+    couple(pcmM, pcmA, end, n);
+  }
+
+  void window(float[] pcm, float[] window, int n){
+    int end=SPECIES.loopBound(n);
+    for(int j=0; j<end; j+=SPECIES.length()){
+      FloatVector.fromArray(SPECIES, pcm, j)
+          .mul(FloatVector.fromArray(SPECIES, window, j)).intoArray(pcm, j);
+    }
+    for(int j=end; j<n; j++){
+      pcm[j]*=window[j];
+    }
+  }
+
+  void add(float[] dst, int d, float[] src, int s, int n){
+    int end=SPECIES.loopBound(n);
+    for(int j=0; j<end; j+=SPECIES.length()){
+      FloatVector.fromArray(SPECIES, dst, d+j)
+          .add(FloatVector.fromArray(SPECIES, src, s+j)).intoArray(dst, d+j);
+    }
+    for(int j=end; j<n; j++){
+      dst[d+j]+=src[s+j];
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+// Mdct with steps 2 and 3 of the inverse, the butterflies, done with the
+// Vector API.  Both steps turn pairs (a, b) of differences into
+// (a*c+b*s, b*c-a*s) for a twiddle (c, s) that depends on the pair.  Laid
+// out in memory order, that is d*C+swap(d)*S, where C repeats c and S
+// alternates s and -s.  Those tables are built once in init, so the
+// vector loops are straight runs over contiguous floats.  They do the
+// same multiplies and adds on the same values as Mdct, so the output is
+// the same bit for bit.  Selected by Simd.
+class VectorMdct extends Mdct{
+  private static final VectorSpecies<Float> SPECIES=FloatVector.SPECIES_PREFERRED;
+  private static final int LANES=SPECIES.length();
+  // (a, b) -> (b, a) in every pair of lanes
+  private static final VectorShuffle<Float> SWAP=
+    VectorShuffle.fromOp(SPECIES, i -> i^1);
+
+  // twiddles for step 2, then for each stage of step 3
+  private float[] firstC, firstS;
+  private float[][] stageC, stageS;
+
+  void init(int n){
+    super.init(n);
+    int n2=n>>>1;
+    int n4=n>>>2;
+
+    firstC=new float[n4];
+    firstS=new float[n4];
+    for(int j=0; j<n4/2; j++){
+      int A=n2-4-4*j;
+      firstC[2*j]=firstC[2*j+1]=trig[A];
+      firstS[2*j]=trig[A+1];
+      firstS[2*j+1]=-trig[A+1];
+    }
+
+    stageC=new float[log2n-3][];
+    stageS=new float[log2n-3][];
+    for(int i=0; i<log2n-3; i++){
+      int k0=n>>>(i+2);
+      int k1=1<<(i+3);
+      int half=k0>>>1;
+      stageC[i]=new float[half];
+      stageS[i]=new float[half];
+      for(int p=0; p<half/2; p++){
+        // pairs are stored from the last r down
+        int A=(half/2-1-p)*k1;
+        stageC[i][2*p]=stageC[i][2*p+1]=trig[A];
+        stageS[i][2*p]=trig[A+1];
+        stageS[i][2*p+1]=-trig[A+1];
+      }
+    }
+  }
+
+  void mdct_butterfly_first(float[] x, float[] w){
+    int n4=n>>>2;
+    if(n4<LANES){
+      super.mdct_butterfly_first(x, w);
+      return;
+    }
+    for(int k=0; k<n4; k+=LANES){
+      FloatVector a=FloatVector.fromArray(SPECIES, x, n4+k);
+      FloatVector b=FloatVector.fromArray(SPECIES, x, k);
+      a.add(b).intoArray(w, n4+k);
+      twiddle(a.sub(b), firstC, firstS, k, w, k);
+    }
+  }
+
+  void mdct_butterfly_stage(int i, float[] w, float[] x){
+    int n2=n>>>1;
+    int k0=n>>>(i+2);
+    int half=k0>>>1;
+    if(half<LANES){
+      super.mdct_butterfly_stage(i, w, x);
+      return;
+    }
+    float[] C=stageC[i];
+    float[] S=stageS[i];
+    // block s of the stage: the upper halves of its pairs at hi, the
+    // lower ones half below
+    for(int s=0, hi=n2-half; s<(2<<i); s++, hi-=k0){
+      int lo=hi-half;
+      for(int q=0; q<half; q+=LANES){
+        FloatVector a=FloatVector.fromArray(SPECIES, w, hi+q);
+        FloatVector b=FloatVector.fromArray(SPECIES, w, lo+q);
+        a.add(b).intoArray(x, hi+q);
+        twiddle(a.sub(b), C, S, q, x, lo+q);
+      }
+    }
+  }
+
+  // out[o..] = d*C[t..] + swap(d)*S[t..]
+  private static void twiddle(FloatVector d, float[] C, float[] S, int t,
+      float[] out, int o){
+    FloatVector c=FloatVector.fromArray(SPECIES, C, t);
+    FloatVector s=FloatVector.fromArray(SPECIES, S, t);
+    d.mul(c).add(d.rearrange(SWAP).mul(s)).intoArray(out, o);
+  }
+}
@@ -26,9 +26,20 @@
 
 package com.jcraft.jogg;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 public class Buffer{
   private static final int BUFFER_INCREMENT=256;
 
+  // Reads eight bytes at once, least significant first.  While eight
+  // bytes are left in the packet, look and read take their bits from one
+  // such word, shifted down by endbit, instead of a byte at a time; only
+  // the last few bytes of a packet go the old way.
+  private static final VarHandle LONG=
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
   private static final int[] mask= {0x00000000, 0x00000001, 0x00000003,
       0x00000007, 0x0000000f, 0x0000001f, 0x0000003f, 0x0000007f, 0x000000ff,
       0x000001ff, 0x000003ff, 0x000007ff, 0x00000fff, 0x00001fff, 0x00003fff,
@@ -122,6 +133,10 @@ public class Buffer{
     int ret;
     int m=mask[bits];
 
+    if(endbyte+8<=storage){
+      return (m&(int)((long)LONG.get(buffer, ptr)>>>endbit));
+    }
+
     bits+=endbit;
 
     if(endbyte+4>=storage){
@@ -145,6 +160,23 @@ public class Buffer{
     return (m&ret);
   }
 
+  // The next 32 bits, without advancing.  Bits past the end of the
+  // buffer read as zero; a caller decoding a variable length word checks
+  // its length against remaining() before taking it.
+  public int look32(){
+    long ret;
+    if(endbyte+8<=storage){
+      ret=(long)LONG.get(buffer, ptr);
+    }
+    else{
+      ret=0;
+      for(int i=0; endbyte+i<storage&&i<5; i++){
+        ret|=(buffer[ptr+i]&0xffL)<<(8*i);
+      }
+    }
+    return ((int)(ret>>>endbit));
+  }
+
   public int look1(){
     if(endbyte>=storage)
       return (-1);
@@ -171,6 +203,15 @@ public class Buffer{
     int ret;
     int m=mask[bits];
 
+    if(endbyte+8<=storage){
+      ret=m&(int)((long)LONG.get(buffer, ptr)>>>endbit);
+      bits+=endbit;
+      ptr+=bits>>>3;
+      endbyte+=bits>>>3;
+      endbit=bits&7;
+      return (ret);
+    }
+
     bits+=endbit;
 
     if(endbyte+4>=storage){
@@ -274,6 +315,11 @@ public class Buffer{
     return (endbyte*8+endbit);
   }
 
+  // bits left to read
+  public int remaining(){
+    return ((storage-endbyte)*8-endbit);
+  }
+
   public byte[] buffer(){
     return (buffer);
   }
@@ -26,13 +26,32 @@
 
 package com.jcraft.jogg;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class Page{
   private static int[] crc_lookup=new int[256];
+  // Slicing by 8: crc_slice[k] is the effect of a byte followed by k
+  // zero bytes, so eight bytes fold into the register with eight
+  // independent lookups instead of eight dependent ones.
+  private static int[][] crc_slice=new int[8][];
   static{
     for(int i=0; i<crc_lookup.length; i++){
       crc_lookup[i]=crc_entry(i);
     }
+    crc_slice[0]=crc_lookup;
+    for(int k=1; k<8; k++){
+      crc_slice[k]=new int[256];
+      for(int i=0; i<256; i++){
+        int r=crc_slice[k-1][i];
+        crc_slice[k][i]=(r<<8)^crc_lookup[(r>>>24)&0xff];
+      }
+    }
   }
+  private static final VarHandle INT=
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
 
   private static int crc_entry(int index){
     int r=index<<24;
@@ -56,80 +75,141 @@ public class Page{
   public byte[] body_base;
   public int body;
   public int body_len;
+  // A page read out of a ByteBuffer with no array behind it, such as a
+  // mapped file, is left where it is: base is set instead of header_base
+  // and body_base, and header and body are indices into it.
+  public ByteBuffer base;
+
+  // byte i of the header
+  int at(int i){
+    return ((base!=null ? base.get(header+i) : header_base[header+i])&0xff);
+  }
 
   int version(){
-    return header_base[header+4]&0xff;
+    return at(4);
   }
 
   int continued(){
-    return (header_base[header+5]&0x01);
+    return (at(5)&0x01);
   }
 
   public int bos(){
-    return (header_base[header+5]&0x02);
+    return (at(5)&0x02);
   }
 
   public int eos(){
-    return (header_base[header+5]&0x04);
+    return (at(5)&0x04);
   }
 
   public long granulepos(){
-    long foo=header_base[header+13]&0xff;
-    foo=(foo<<8)|(header_base[header+12]&0xff);
-    foo=(foo<<8)|(header_base[header+11]&0xff);
-    foo=(foo<<8)|(header_base[header+10]&0xff);
-    foo=(foo<<8)|(header_base[header+9]&0xff);
-    foo=(foo<<8)|(header_base[header+8]&0xff);
-    foo=(foo<<8)|(header_base[header+7]&0xff);
-    foo=(foo<<8)|(header_base[header+6]&0xff);
+    long foo=at(13);
+    for(int i=12; i>=6; i--){
+      foo=(foo<<8)|at(i);
+    }
     return (foo);
   }
 
   public int serialno(){
-    return (header_base[header+14]&0xff)|((header_base[header+15]&0xff)<<8)
-        |((header_base[header+16]&0xff)<<16)
-        |((header_base[header+17]&0xff)<<24);
+    return at(14)|(at(15)<<8)|(at(16)<<16)|(at(17)<<24);
   }
 
   int pageno(){
-    return (header_base[header+18]&0xff)|((header_base[header+19]&0xff)<<8)
-        |((header_base[header+20]&0xff)<<16)
-        |((header_base[header+21]&0xff)<<24);
+    return at(18)|(at(19)<<8)|(at(20)<<16)|(at(21)<<24);
   }
 
   void checksum(){
-    int crc_reg=0;
-
-    for(int i=0; i<header_len; i++){
-      crc_reg=(crc_reg<<8)
-          ^crc_lookup[((crc_reg>>>24)&0xff)^(header_base[header+i]&0xff)];
-    }
-    for(int i=0; i<body_len; i++){
-      crc_reg=(crc_reg<<8)
-          ^crc_lookup[((crc_reg>>>24)&0xff)^(body_base[body+i]&0xff)];
-    }
+    int crc_reg=crc();
     header_base[header+22]=(byte)crc_reg;
     header_base[header+23]=(byte)(crc_reg>>>8);
     header_base[header+24]=(byte)(crc_reg>>>16);
     header_base[header+25]=(byte)(crc_reg>>>24);
   }
 
+  // The checksum of the page, taking the checksum field (bytes 22-25 of
+  // the header) as zero.  Nothing is written, so the page may be in
+  // memory that is shared or not ours.
+  int crc(){
+    if(base!=null){
+      int crc_reg=zeros(crc(0, base, header, 22), 4);
+      crc_reg=crc(crc_reg, base, header+26, header_len-26);
+      return (crc(crc_reg, base, body, body_len));
+    }
+    int crc_reg=zeros(crc(0, header_base, header, 22), 4);
+    crc_reg=crc(crc_reg, header_base, header+26, header_len-26);
+    return (crc(crc_reg, body_base, body, body_len));
+  }
+
+  // the CRC continued over n zero bytes
+  private static int zeros(int crc_reg, int n){
+    for(int i=0; i<n; i++){
+      crc_reg=(crc_reg<<8)^crc_lookup[(crc_reg>>>24)&0xff];
+    }
+    return (crc_reg);
+  }
+
+  // the Ogg CRC of len bytes of b from off, continuing from crc_reg
+  static int crc(int crc_reg, byte[] b, int off, int len){
+    int[] t0=crc_slice[0], t1=crc_slice[1], t2=crc_slice[2], t3=crc_slice[3];
+    int[] t4=crc_slice[4], t5=crc_slice[5], t6=crc_slice[6], t7=crc_slice[7];
+    int end=off+len;
+    for(; off+8<=end; off+=8){
+      int hi=crc_reg^(int)INT.get(b, off);
+      int lo=(int)INT.get(b, off+4);
+      crc_reg=t7[hi>>>24]^t6[(hi>>>16)&0xff]^t5[(hi>>>8)&0xff]^t4[hi&0xff]
+          ^t3[lo>>>24]^t2[(lo>>>16)&0xff]^t1[(lo>>>8)&0xff]^t0[lo&0xff];
+    }
+    for(; off<end; off++){
+      crc_reg=(crc_reg<<8)^crc_lookup[((crc_reg>>>24)&0xff)^(b[off]&0xff)];
+    }
+    return (crc_reg);
+  }
+
+  // The same reading b at absolute indices, which must be big endian
+  static int crc(int crc_reg, ByteBuffer b, int off, int len){
+    int[] t0=crc_slice[0], t1=crc_slice[1], t2=crc_slice[2], t3=crc_slice[3];
+    int[] t4=crc_slice[4], t5=crc_slice[5], t6=crc_slice[6], t7=crc_slice[7];
+    int end=off+len;
+    for(; off+8<=end; off+=8){
+      int hi=crc_reg^b.getInt(off);
+      int lo=b.getInt(off+4);
+      crc_reg=t7[hi>>>24]^t6[(hi>>>16)&0xff]^t5[(hi>>>8)&0xff]^t4[hi&0xff]
+          ^t3[lo>>>24]^t2[(lo>>>16)&0xff]^t1[(lo>>>8)&0xff]^t0[lo&0xff];
+    }
+    for(; off<end; off++){
+      crc_reg=(crc_reg<<8)^crc_lookup[((crc_reg>>>24)&0xff)^(b.get(off)&0xff)];
+    }
+    return (crc_reg);
+  }
+
   public Page copy(){
     return copy(new Page());
   }
 
   public Page copy(Page p){
     byte[] tmp=new byte[header_len];
-    System.arraycopy(header_base, header, tmp, 0, header_len);
+    get(header_base, header, tmp, header_len);
     p.header_len=header_len;
     p.header_base=tmp;
     p.header=0;
     tmp=new byte[body_len];
-    System.arraycopy(body_base, body, tmp, 0, body_len);
+    get(body_base, body, tmp, body_len);
     p.body_len=body_len;
     p.body_base=tmp;
     p.body=0;
+    p.base=null;
     return p;
   }
 
+  // len bytes from off of the array, or of base if there is one
+  private void get(byte[] array, int off, byte[] to, int len){
+    if(base!=null){
+      ByteBuffer b=base.duplicate();
+      b.position(off);
+      b.get(to, 0, len);
+    }
+    else{
+      System.arraycopy(array, off, to, 0, len);
+    }
+  }
+
 }
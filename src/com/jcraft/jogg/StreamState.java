@@ -86,6 +86,9 @@ public class StreamState{
       for(int i=0; i<granule_vals.length; i++)
         granule_vals[i]=0;
     }
+    // a new stream: nothing buffered, no page seen yet, as ogg_stream_init
+    // leaves it
+    reset();
     this.serialno=serialno;
   }
 
@@ -228,8 +231,6 @@ public class StreamState{
   // into packet segments here as well.
 
   public int pagein(Page og){
-    byte[] header_base=og.header_base;
-    int header=og.header;
     byte[] body_base=og.body_base;
     int body=og.body;
     int bodysize=og.body_len;
@@ -242,7 +243,7 @@ public class StreamState{
     long granulepos=og.granulepos();
     int _serialno=og.serialno();
     int _pageno=og.pageno();
-    int segments=header_base[header+26]&0xff;
+    int segments=og.at(26);
 
     // clean up 'returned data'
     {
@@ -300,7 +301,7 @@ public class StreamState{
       if(continued!=0){
         bos=0;
         for(; segptr<segments; segptr++){
-          int val=(header_base[header+27+segptr]&0xff);
+          int val=og.at(27+segptr);
           body+=val;
           bodysize-=val;
           if(val<255){
@@ -313,14 +314,21 @@ public class StreamState{
 
     if(bodysize!=0){
       body_expand(bodysize);
-      System.arraycopy(body_base, body, body_data, body_fill, bodysize);
+      if(og.base!=null){
+        // the one copy of a mapped page, straight out of the mapping
+        og.base.position(body);
+        og.base.get(body_data, body_fill, bodysize);
+      }
+      else{
+        System.arraycopy(body_base, body, body_data, body_fill, bodysize);
+      }
       body_fill+=bodysize;
     }
 
     {
       int saved=-1;
       while(segptr<segments){
-        int val=(header_base[header+27+segptr]&0xff);
+        int val=og.at(27+segptr);
         lacing_vals[lacing_fill]=val;
         granule_vals[lacing_fill]=-1;
 
@@ -473,6 +481,7 @@ public class StreamState{
     og.body_base=body_data;
     og.body=body_returned;
     og.body_len=bytes;
+    og.base=null;
 
     /* advance the lacing data and set the body_returned pointer */
 
@@ -26,6 +26,9 @@
 
 package com.jcraft.jogg;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 // DECODING PRIMITIVES: packet streaming layer
 
 // This has two layers to place more of the multi-serialno and paging
@@ -41,6 +44,10 @@ package com.jcraft.jogg;
 // packets out calling ogg_stream_packet() with a
 // ogg_stream_state.  See the 'frame-prog.txt' docs for details and
 // example code.
+//
+// Data already in memory need not be copied in at all: wrap() hands
+// SyncState a region of the caller's array (or a ByteBuffer, mapped or
+// not), and pages are returned pointing straight into it.
 
 public class SyncState{
 
@@ -53,12 +60,98 @@ public class SyncState{
   int headerbytes;
   int bodybytes;
 
+  // Set by wrap: data is the caller's, not ours, and our own buffer is
+  // kept aside until it is needed again.
+  private boolean wrapped;
+  private byte[] own;
+  // A wrapped ByteBuffer whose bytes can't be reached as an array, read
+  // where it is; data is null meanwhile
+  private ByteBuffer mapped;
+
+  private boolean verify=true;
+
   public int clear(){
     data=null;
+    own=null;
+    wrapped=false;
+    mapped=null;
+    return (0);
+  }
+
+  // Decode pages straight out of len bytes of buf from off.  The bytes
+  // are not copied and not written to, so the same array may be wrapped
+  // by several SyncStates at once, but they must not change while pages
+  // from them are in use.  Calling buffer() afterwards goes back to
+  // SyncState's own storage, moving any unread bytes there first.
+  public int wrap(byte[] buf, int off, int len){
+    if(!wrapped){
+      own=data;
+    }
+    data=buf;
+    returned=off;
+    fill=storage=off+len;
+    wrapped=true;
+    mapped=null;
+    unsynced=0;
+    headerbytes=0;
+    bodybytes=0;
     return (0);
   }
 
+  // Decode the remaining bytes of buf, without moving its position.  A
+  // heap buffer is wrapped as its array.  Any other (a direct or mapped
+  // buffer, or a read only view) is read where it is too: pages from it
+  // have Page.base set, and StreamState.pagein copies their bodies out of
+  // it, the one copy there is of a page from an array as well.
+  public int wrap(ByteBuffer buf){
+    if(buf.hasArray()){
+      return (wrap(buf.array(), buf.arrayOffset()+buf.position(),
+          buf.remaining()));
+    }
+    wrap(null, buf.position(), buf.remaining());
+    mapped=buf.duplicate().order(ByteOrder.BIG_ENDIAN);
+    return (0);
+  }
+
+  // byte i of the data, wherever it is
+  private int at(int i){
+    return ((mapped!=null ? mapped.get(i) : data[i])&0xff);
+  }
+
+  // Whether pages must pass their checksum; the default.  Turning it off
+  // is for data known to be intact, such as an archive this program
+  // wrote itself: pages are then taken as soon as their capture pattern
+  // and lengths check out.
+  public void setVerify(boolean verify){
+    this.verify=verify;
+  }
+
   public int buffer(int size){
+    if(wrapped){
+      // stop using the caller's data; keep whatever is not yet returned
+      byte[] from=data;
+      ByteBuffer fromBuffer=mapped;
+      int start=returned;
+      int left=fill-returned;
+      data=own;
+      storage=(own==null ? 0 : own.length);
+      wrapped=false;
+      own=null;
+      mapped=null;
+      fill=returned=0;
+      if(left>0){
+        buffer(left);
+        if(fromBuffer!=null){
+          fromBuffer.position(start);
+          fromBuffer.get(data, 0, left);
+        }
+        else{
+          System.arraycopy(from, start, data, 0, left);
+        }
+        fill=left;
+      }
+    }
+
     // first, clear out any space that has been previously returned
     if(returned!=0){
       fill-=returned;
@@ -100,7 +193,6 @@ public class SyncState{
   //  0) page not ready; more data (no bytes skipped)
   //  n) page synced at current location; page length n bytes
   private Page pageseek=new Page();
-  private byte[] chksum=new byte[4];
 
   public int pageseek(Page og){
     int page=returned;
@@ -113,15 +205,14 @@ public class SyncState{
         return (0); // not enough for a header
 
       /* verify capture pattern */
-      if(data[page]!='O'||data[page+1]!='g'||data[page+2]!='g'
-          ||data[page+3]!='S'){
+      if(at(page)!='O'||at(page+1)!='g'||at(page+2)!='g'||at(page+3)!='S'){
         headerbytes=0;
         bodybytes=0;
 
         // search for possible capture
         next=0;
         for(int ii=0; ii<bytes-1; ii++){
-          if(data[page+1+ii]=='O'){
+          if(at(page+1+ii)=='O'){
             next=page+1+ii;
             break;
           }
@@ -133,14 +224,14 @@ public class SyncState{
         returned=next;
         return (-(next-page));
       }
-      _headerbytes=(data[page+26]&0xff)+27;
+      _headerbytes=at(page+26)+27;
       if(bytes<_headerbytes)
         return (0); // not enough for header + seg table
 
       // count up body length in the segment table
 
-      for(i=0; i<(data[page+26]&0xff); i++){
-        bodybytes+=(data[page+27+i]&0xff);
+      for(i=0; i<_headerbytes-27; i++){
+        bodybytes+=at(page+27+i);
       }
       headerbytes=_headerbytes;
     }
@@ -148,16 +239,9 @@ public class SyncState{
     if(bodybytes+headerbytes>bytes)
       return (0);
 
-    // The whole test page is buffered.  Verify the checksum
-    synchronized(chksum){
-      // Grab the checksum bytes, set the header field to zero
-
-      System.arraycopy(data, page+22, chksum, 0, 4);
-      data[page+22]=0;
-      data[page+23]=0;
-      data[page+24]=0;
-      data[page+25]=0;
-
+    // The whole test page is buffered.  Verify the checksum, without
+    // writing to the data, which may be the caller's
+    if(verify){
       // set up a temp page struct and recompute the checksum
       Page log=pageseek;
       log.header_base=data;
@@ -167,14 +251,12 @@ public class SyncState{
       log.body_base=data;
       log.body=page+headerbytes;
       log.body_len=bodybytes;
-      log.checksum();
+      log.base=mapped;
 
       // Compare
-      if(chksum[0]!=data[page+22]||chksum[1]!=data[page+23]
-          ||chksum[2]!=data[page+24]||chksum[3]!=data[page+25]){
+      if(log.crc()!=(at(page+22)|(at(page+23)<<8)|(at(page+24)<<16)
+          |(at(page+25)<<24))){
         // D'oh.  Mismatch! Corrupt page (or miscapture and not a page at all)
-        // replace the computed checksum with the one actually read in
-        System.arraycopy(chksum, 0, data, page+22, 4);
         // Bad checksum. Lose sync */
 
         headerbytes=0;
@@ -182,7 +264,7 @@ public class SyncState{
         // search for possible capture
         next=0;
         for(int ii=0; ii<bytes-1; ii++){
-          if(data[page+1+ii]=='O'){
+          if(at(page+1+ii)=='O'){
             next=page+1+ii;
             break;
           }
@@ -206,6 +288,7 @@ public class SyncState{
         og.body_base=data;
         og.body=page+headerbytes;
         og.body_len=bodybytes;
+        og.base=mapped;
       }
 
       unsynced=0;
@@ -254,6 +337,13 @@ public class SyncState{
 
   // clear things to an initial state.  Good to call, eg, before seeking
   public int reset(){
+    if(wrapped){
+      data=own;
+      storage=(own==null ? 0 : own.length);
+      wrapped=false;
+      own=null;
+    }
+    mapped=null;
     fill=0;
     returned=0;
     unsynced=0;
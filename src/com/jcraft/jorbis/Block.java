@@ -50,6 +50,25 @@ public class Block{
   int floor_bits;
   int res_bits;
 
+  // Scratch for decoding one packet.  The lookups of a setup (mappings,
+  // codebooks, transforms) may be shared by many decoders; everything they
+  // write while decoding lives here instead, so they need no locks.
+  // residue decode: the partition words of each channel
+  private int[][][] partword=new int[2][][];
+  // CodeBook.decodevs_add: the entries of one partition
+  private int[] entries=new int[15];
+  // Mapping0.inverse: per channel bundles and floor memos.  floormemo
+  // keeps each channel's floor storage for the next packet; floorcurve
+  // is this packet's floor, null where a channel has none.
+  float[][] pcmbundle=new float[0][];
+  int[] zerobundle;
+  int[] nonzero;
+  Object[] floormemo;
+  Object[] floorcurve;
+  // Mdct.backward
+  float[] mdct_x=new float[0];
+  float[] mdct_w=new float[0];
+
   public Block(DspState vd){
     this.vd=vd;
     if(vd.analysisp!=0){
@@ -70,6 +89,27 @@ public class Block{
     return (0);
   }
 
+  // at least ch channels of at least partwords partition words
+  int[][][] partword(int ch, int partwords){
+    if(partword.length<ch){
+      partword=new int[ch][][];
+    }
+    for(int j=0; j<ch; j++){
+      if(partword[j]==null||partword[j].length<partwords){
+        partword[j]=new int[partwords][];
+      }
+    }
+    return (partword);
+  }
+
+  // at least n codebook entries
+  int[] entries(int n){
+    if(entries.length<n){
+      entries=new int[n];
+    }
+    return (entries);
+  }
+
   public int synthesis(Packet op){
     Info vi=vd.vi;
 
@@ -112,7 +152,8 @@ public class Block{
     }
     for(int i=0; i<vi.channels; i++){
       if(pcm[i]==null||pcm[i].length<pcmend){
-        pcm[i]=new float[pcmend];
+        // big enough for a long block, so this happens once per stream
+        pcm[i]=new float[vi.blocksizes[1]];
       }
       else{
         for(int j=0; j<pcmend; j++){
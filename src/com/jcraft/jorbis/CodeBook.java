@@ -81,19 +81,16 @@ class CodeBook{
     return (encode(best, b));
   }
 
-  private int[] t=new int[15]; // decodevs_add is synchronized for re-using t.
-
-  synchronized int decodevs_add(float[] a, int offset, Buffer b, int n){
+  // Decodes every entry before adding any, so a corrupt packet leaves a
+  // untouched.  The entries go in vb's scratch, not in the codebook.
+  int decodevs_add(float[] a, int offset, Block vb, int n){
     int step=n/dim;
     int entry;
     int i, j, o;
-
-    if(t.length<step){
-      t=new int[step];
-    }
+    int[] t=vb.entries(step);
 
     for(i=0; i<step; i++){
-      entry=decode(b);
+      entry=decode(vb.opb);
       if(entry==-1)
         return (-1);
       t[i]=entry*dim;
@@ -207,17 +204,28 @@ class CodeBook{
 
   // returns the entry number or -1 on eof
   int decode(Buffer b){
-    int ptr=0;
     DecodeAux t=decode_tree;
-    int lok=b.look(t.tabn);
-
-    if(lok>=0){
-      ptr=t.tab[lok];
-      b.adv(t.tabl[lok]);
-      if(ptr<=0){
-        return -ptr;
+    int lok=b.look32();
+    int e=t.tab[lok&t.tabmask];
+    if(e<0){
+      int sub=~e;
+      int subbits=sub&0x1f;
+      if(subbits==0){
+        // no second level below this node; walk the rest of the tree
+        b.adv(t.tabn);
+        return (walk(t, sub>>>5, b));
       }
+      e=t.tab[(sub>>>5)+((lok>>>t.tabn)&((1<<subbits)-1))];
+    }
+    int length=e&0x3f;
+    if(length>b.remaining()){
+      return (-1);
     }
+    b.adv(length);
+    return (e>>>6);
+  }
+
+  private static int walk(DecodeAux t, int ptr, Buffer b){
     do{
       switch(b.read1()){
         case 0:
@@ -441,35 +449,100 @@ class CodeBook{
       }
     }
 
-    t.tabn=Util.ilog(entries)-4;
-
+    // Two levels of lookup tables over the tree.  The first is indexed
+    // by the next tabn bits of the stream.  A codeword that fits in them
+    // resolves there; a longer one leads to a second table indexed by the
+    // bits that follow, as wide as the deepest codeword below that node.
+    // Only second tables wider than SUBBITS fall back to walking the tree.
+    int maxlength=0;
+    for(int i=0; i<entries; i++){
+      if(c.lengthlist[i]>maxlength)
+        maxlength=c.lengthlist[i];
+    }
+    t.tabn=Util.ilog(entries)+1;
     if(t.tabn<5)
       t.tabn=5;
+    if(t.tabn>TABBITS)
+      t.tabn=TABBITS;
+    if(t.tabn>maxlength&&maxlength>0)
+      t.tabn=maxlength;
+    t.tabmask=(1<<t.tabn)-1;
+
     int n=1<<t.tabn;
-    t.tab=new int[n];
-    t.tabl=new int[n];
+    int size=n;
+    int[] subbits=new int[n];
     for(int i=0; i<n; i++){
-      int p=0;
-      int j=0;
-      for(j=0; j<t.tabn&&(p>0||j==0); j++){
-        if((i&(1<<j))!=0){
-          p=ptr1[p];
+      int p=node(t, 0, i, t.tabn);
+      if(p>0){
+        int depth=depth(t, p);
+        if(depth<=SUBBITS){
+          subbits[i]=depth;
+          size+=1<<depth;
         }
-        else{
-          p=ptr0[p];
+      }
+    }
+
+    t.tab=new int[size];
+    int next=n;
+    for(int i=0; i<n; i++){
+      int p=node(t, 0, i, t.tabn);
+      if(p<=0){
+        t.tab[i]=entry(t, 0, i, t.tabn);
+      }
+      else if(subbits[i]==0){
+        t.tab[i]=~(p<<5);
+      }
+      else{
+        t.tab[i]=~(next<<5|subbits[i]);
+        for(int k=0; k<1<<subbits[i]; k++){
+          t.tab[next+k]=entry(t, p, k, subbits[i])+t.tabn;
         }
+        next+=1<<subbits[i];
       }
-      t.tab[i]=p; // -code
-      t.tabl[i]=j; // length 
     }
 
     return (t);
   }
 
+  // Where the tree leads from node p on the low bits of word: a node
+  // (>0), or minus the entry at the leaf it reaches.  A missing branch
+  // counts as entry 0.
+  private static int node(DecodeAux t, int p, int word, int bits){
+    for(int j=0; j<bits&&(p>0||j==0); j++){
+      p=((word>>>j)&1)!=0 ? t.ptr1[p] : t.ptr0[p];
+    }
+    return (p);
+  }
+
+  // The leaf reached from node p on word as a table entry: entry number
+  // above six bits of length
+  private static int entry(DecodeAux t, int p, int word, int bits){
+    int j=0;
+    do{
+      p=((word>>>j)&1)!=0 ? t.ptr1[p] : t.ptr0[p];
+      j++;
+    }
+    while(p>0&&j<bits);
+    return ((-p)<<6|j);
+  }
+
+  // length of the longest path below node p
+  private static int depth(DecodeAux t, int p){
+    if(p<=0)
+      return (0);
+    return (1+Math.max(depth(t, t.ptr0[p]), depth(t, t.ptr1[p])));
+  }
+
+  // widest first and second level tables
+  static final int TABBITS=10;
+  static final int SUBBITS=10;
+
   class DecodeAux{
+    // leaves are entry<<6|length; ~(offset<<5|bits) is a second table of
+    // 1<<bits at offset, and ~(node<<5) a node to walk the tree from
     int[] tab;
-    int[] tabl;
     int tabn;
+    int tabmask;
 
     int[] ptr0;
     int[] ptr1;
@@ -33,9 +33,6 @@ import com.jcraft.jogg.*;
 // to end.  Vorbisfile.a is somewhat more complex than the code below.
 
 class DecodeExample{
-  static int convsize=4096*2;
-  static byte[] convbuffer=new byte[convsize]; // take 8k out of the data segment, not the stack
-
   public static void main(String[] arg){
     java.io.InputStream input=System.in;
     if(arg.length>0){
@@ -56,6 +53,7 @@ class DecodeExample{
     Comment vc=new Comment(); // struct that stores all the bitstream user comments
     DspState vd=new DspState(); // central working state for the packet->PCM decoder
     Block vb=new Block(vd); // local working space for packet->PCM decode
+    PcmWriter out=new PcmWriter(System.out); // 16 bit PCM to stdout
 
     byte[] buffer;
     int bytes=0;
@@ -199,8 +197,6 @@ class DecodeExample{
             +new String(vc.vendor, 0, vc.vendor.length-1)+"\n");
       }
 
-      convsize=4096/vi.channels;
-
       // OK, got and parsed all three headers. Initialize the Vorbis
       //  packet->PCM decoder.
       vd.synthesis_init(vi); // central decode state
@@ -210,8 +206,6 @@ class DecodeExample{
       // multiple vorbis_block structures
       // for vd here
 
-      float[][][] _pcm=new float[1][][];
-      int[] _index=new int[vi.channels];
       // The rest is just a straight decode loop until end of stream
       while(eos==0){
         while(eos==0){
@@ -236,52 +230,14 @@ class DecodeExample{
               }
               else{
                 // we have a packet.  Decode it
-                int samples;
                 if(vb.synthesis(op)==0){ // test for success!
                   vd.synthesis_blockin(vb);
                 }
 
-                // **pcm is a multichannel float vector.  In stereo, for
-                // example, pcm[0] is left, and pcm[1] is right.  samples is
-                // the size of each channel.  Convert the float values
-                // (-1.<=range<=1.) to whatever PCM format and write it out
-
-                while((samples=vd.synthesis_pcmout(_pcm, _index))>0){
-                  float[][] pcm=_pcm[0];
-                  int bout=(samples<convsize ? samples : convsize);
-
-                  // convert floats to 16 bit signed ints (host order) and
-                  // interleave
-                  for(i=0; i<vi.channels; i++){
-                    int ptr=i*2;
-                    //int ptr=i;
-                    int mono=_index[i];
-                    for(int j=0; j<bout; j++){
-                      int val=(int)(pcm[i][mono+j]*32767.);
-                      //		      short val=(short)(pcm[i][mono+j]*32767.);
-                      //		      int val=(int)Math.round(pcm[i][mono+j]*32767.);
-                      // might as well guard against clipping
-                      if(val>32767){
-                        val=32767;
-                      }
-                      if(val<-32768){
-                        val=-32768;
-                      }
-                      if(val<0)
-                        val=val|0x8000;
-                      convbuffer[ptr]=(byte)(val);
-                      convbuffer[ptr+1]=(byte)(val>>>8);
-                      ptr+=2*(vi.channels);
-                    }
-                  }
-
-                  System.out.write(convbuffer, 0, 2*vi.channels*bout);
-
-                  // tell libvorbis how
-                  // many samples we
-                  // actually consumed
-                  vd.synthesis_read(bout);
-                }
+                // push the decoded samples to the writer, which converts
+                // the float values (-1.<=range<=1.) to 16 bit signed ints
+                // (little endian), interleaves and writes them out
+                vd.synthesis_pcmout(out);
               }
             }
             if(og.eos()!=0)
@@ -319,6 +275,12 @@ class DecodeExample{
 
     // OK, clean up the framer
     oy.clear();
+    try{
+      out.flush();
+    }
+    catch(java.io.IOException e){
+      System.err.println(e);
+    }
     System.err.println("Done.");
   }
 }
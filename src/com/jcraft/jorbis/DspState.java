@@ -26,15 +26,21 @@
 
 package com.jcraft.jorbis;
 
+import java.util.Arrays;
+
 public class DspState{
   static final float M_PI=3.1415926539f;
   static final int VI_TRANSFORMB=1;
   static final int VI_WINDOWB=1;
+  static final int REBASE=1<<30;
 
   int analysisp;
   Info vi;
   int modebits;
 
+  // pcm is a ring of pcm_storage samples per channel, a power of two.
+  // pcm_current, pcm_returned and centerW count samples from the start
+  // and only grow; sample p is kept at pcm[i][p&(pcm_storage-1)].
   float[][] pcm;
   int pcm_storage;
   int pcm_current;
@@ -132,24 +138,21 @@ public class DspState{
     return (ret);
   }
 
-  // Analysis side code, but directly related to blocking.  Thus it's
-  // here and not in analysis.c (which is for analysis transforms only).
-  // The init is here because some of it is shared
-
-  int init(Info vi, boolean encp){
-    this.vi=vi;
-    modebits=Util.ilog2(vi.modes);
-
+  // Build the lookups that depend only on the headers.  They are never
+  // written once built (see SetupCache), so each gets fresh arrays.
+  void lookups(Info vi){
+    transform=new Object[2][];
     transform[0]=new Object[VI_TRANSFORMB];
     transform[1]=new Object[VI_TRANSFORMB];
 
     // MDCT is tranform 0
 
-    transform[0][0]=new Mdct();
-    transform[1][0]=new Mdct();
+    transform[0][0]=Simd.mdct();
+    transform[1][0]=Simd.mdct();
     ((Mdct)transform[0][0]).init(vi.blocksizes[0]);
     ((Mdct)transform[1][0]).init(vi.blocksizes[1]);
 
+    window=new float[2][2][2][][];
     window[0][0][0]=new float[VI_WINDOWB][];
     window[0][0][1]=window[0][0][0];
     window[0][1][0]=window[0][0][0];
@@ -178,12 +181,44 @@ public class DspState{
       fullbooks[i].init_decode(vi.book_param[i]);
     }
 
+    // initialize all the mapping/backend lookups
+    mode=new Object[vi.modes];
+    for(int i=0; i<vi.modes; i++){
+      int mapnum=vi.mode_param[i].mapping;
+      int maptype=vi.map_type[mapnum];
+      mode[i]=FuncMapping.mapping_P[maptype].look(this, vi.mode_param[i],
+          vi.map_param[mapnum]);
+    }
+  }
+
+  // Analysis side code, but directly related to blocking.  Thus it's
+  // here and not in analysis.c (which is for analysis transforms only).
+  // The init is here because some of it is shared
+
+  int init(Info vi, boolean encp){
+    this.vi=vi;
+    modebits=Util.ilog2(vi.modes);
+
+    // the transforms, windows and books depend only on the headers, and
+    // are shared with every other stream that has the same ones
+    SetupCache setup=SetupCache.find(vi);
+    if(setup!=null){
+      transform=setup.transform;
+      window=setup.window;
+      fullbooks=setup.fullbooks;
+      mode=setup.mode;
+    }
+    else{
+      lookups(vi);
+      SetupCache.add(vi, this);
+    }
+
     // initialize the storage vectors to a decent size greater than the
     // minimum
 
-    pcm_storage=8192; // we'll assume later that we have
-    // a minimum of twice the blocksize of
-    // accumulated samples in analysis
+    // room for two long blocks: one being returned and one being added,
+    // so nothing has to move as long as the caller keeps up
+    pcm_storage=Integer.highestOneBit(2*vi.blocksizes[1]-1)<<1;
     pcm=new float[vi.channels][];
     {
       for(int i=0; i<vi.channels; i++){
@@ -200,15 +235,6 @@ public class DspState{
     centerW=vi.blocksizes[1]/2;
 
     pcm_current=centerW;
-
-    // initialize all the mapping/backend lookups
-    mode=new Object[vi.modes];
-    for(int i=0; i<vi.modes; i++){
-      int mapnum=vi.mode_param[i].mapping;
-      int maptype=vi.map_type[mapnum];
-      mode[i]=FuncMapping.mapping_P[maptype].look(this, vi.mode_param[i],
-          vi.map_param[mapnum]);
-    }
     return (0);
   }
 
@@ -222,6 +248,27 @@ public class DspState{
     return (0);
   }
 
+  // Start decoding the next link of a chained stream whose headers are
+  // the same as the ones this DspState was set up for: only the position
+  // and the overlap are reset, the lookups and the pcm storage are kept.
+  public int synthesis_restart(){
+    if(vi==null)
+      return (-1);
+    for(int i=0; i<pcm.length; i++){
+      Arrays.fill(pcm[i], 0.f);
+    }
+    lW=0;
+    W=0;
+    eofflag=0;
+    centerW=vi.blocksizes[1]/2;
+    pcm_current=centerW;
+    pcm_returned=centerW;
+    centerW-=vi.blocksizes[W]/4+vi.blocksizes[lW]/4;
+    granulepos=-1;
+    sequence=-1;
+    return (0);
+  }
+
   DspState(Info vi){
     this();
     init(vi, false);
@@ -237,23 +284,13 @@ public class DspState{
   // calling (as it relies on the previous block).
 
   public int synthesis_blockin(Block vb){
-    // Shift out any PCM/multipliers that we returned previously
-    // centerW is currently the center of the last block added
-    if(centerW>vi.blocksizes[1]/2&&pcm_returned>8192){
-      // don't shift too much; we need to have a minimum PCM buffer of
-      // 1/2 long block
-
-      int shiftPCM=centerW-vi.blocksizes[1]/2;
-      shiftPCM=(pcm_returned<shiftPCM ? pcm_returned : shiftPCM);
-
-      pcm_current-=shiftPCM;
-      centerW-=shiftPCM;
-      pcm_returned-=shiftPCM;
-      if(shiftPCM!=0){
-        for(int i=0; i<vi.channels; i++){
-          System.arraycopy(pcm[i], shiftPCM, pcm[i], 0, pcm_current);
-        }
-      }
+    // Keep the sample counts well away from overflow.  Moving them all
+    // down by a multiple of the ring size leaves every sample where it is.
+    if(pcm_returned>=REBASE){
+      int shift=pcm_returned&-pcm_storage;
+      pcm_returned-=shift;
+      pcm_current-=shift;
+      centerW-=shift;
     }
 
     lW=W;
@@ -278,15 +315,12 @@ public class DspState{
       int beginSl=0;
       int endSl=0;
 
-      // Do we have enough PCM/mult storage for the block?
-      if(endW>pcm_storage){
+      // Do we have enough PCM/mult storage for the block?  Everything
+      // from pcm_returned on is still needed.
+      int end=(endW>pcm_current ? endW : pcm_current);
+      if(end-pcm_returned>pcm_storage){
         // expand the storage
-        pcm_storage=endW+vi.blocksizes[1];
-        for(int i=0; i<vi.channels; i++){
-          float[] foo=new float[pcm_storage];
-          System.arraycopy(pcm[i], 0, foo, 0, pcm[i].length);
-          pcm[i]=foo;
-        }
+        grow(end-pcm_returned);
       }
 
       // overlap/add PCM
@@ -301,17 +335,25 @@ public class DspState{
           break;
       }
 
-      for(int j=0; j<vi.channels; j++){
-        int _pcm=beginW;
-        // the overlap/add section
-        int i=0;
-        for(i=beginSl; i<endSl; i++){
-          pcm[j][_pcm+i]+=vb.pcm[j][i];
+      // the overlap/add section, then the remaining section, each in up
+      // to two pieces where the ring wraps
+      Loops loops=Simd.loops();
+      int mask=pcm_storage-1;
+      for(int k=beginSl; k<endSl;){
+        int at=(beginW+k)&mask;
+        int n=Math.min(endSl-k, pcm_storage-at);
+        for(int j=0; j<vi.channels; j++){
+          loops.add(pcm[j], at, vb.pcm[j], k, n);
         }
-        // the remaining section
-        for(; i<sizeW; i++){
-          pcm[j][_pcm+i]=vb.pcm[j][i];
+        k+=n;
+      }
+      for(int k=endSl; k<sizeW;){
+        int at=(beginW+k)&mask;
+        int n=Math.min(sizeW-k, pcm_storage-at);
+        for(int j=0; j<vi.channels; j++){
+          System.arraycopy(vb.pcm[j], k, pcm[j], at, n);
         }
+        k+=n;
       }
 
       // track the frame number... This is for convenience, but also
@@ -350,20 +392,59 @@ public class DspState{
     return (0);
   }
 
-  // pcm==NULL indicates we just want the pending samples, no more
+  // Make the ring at least size samples long, keeping every sample from
+  // pcm_returned up to pcm_current at the same position.
+  private void grow(int size){
+    int storage=Integer.highestOneBit(size-1)<<1;
+    for(int i=0; i<vi.channels; i++){
+      float[] foo=new float[storage];
+      for(int p=pcm_returned; p<pcm_current;){
+        int at=p&(pcm_storage-1);
+        int n=Math.min(pcm_current-p, pcm_storage-at);
+        System.arraycopy(pcm[i], at, foo, p&(storage-1), n);
+        p+=n;
+      }
+      pcm[i]=foo;
+    }
+    pcm_storage=storage;
+  }
+
+  // pcm==NULL indicates we just want the pending samples, no more.
+  // Otherwise this hands out the pending samples up to where the ring
+  // wraps; the rest come with the next call, after synthesis_read.
   public int synthesis_pcmout(float[][][] _pcm, int[] index){
     if(pcm_returned<centerW){
-      if(_pcm!=null){
-        for(int i=0; i<vi.channels; i++){
-          index[i]=pcm_returned;
-        }
-        _pcm[0]=pcm;
+      if(_pcm==null){
+        return (centerW-pcm_returned);
+      }
+      int at=pcm_returned&(pcm_storage-1);
+      for(int i=0; i<vi.channels; i++){
+        index[i]=at;
       }
-      return (centerW-pcm_returned);
+      _pcm[0]=pcm;
+      return (Math.min(centerW-pcm_returned, pcm_storage-at));
     }
     return (0);
   }
 
+  // Push the pending samples into sink, a span at a time, until there are
+  // none left or the sink takes fewer than it was offered.  What the sink
+  // takes counts as read.  Returns the number of samples taken.
+  public int synthesis_pcmout(PcmSink sink){
+    int taken=0;
+    while(pcm_returned<centerW){
+      int at=pcm_returned&(pcm_storage-1);
+      int n=Math.min(centerW-pcm_returned, pcm_storage-at);
+      int k=sink.accept(pcm, at, n);
+      pcm_returned+=k;
+      taken+=k;
+      if(k<n){
+        break;
+      }
+    }
+    return (taken);
+  }
+
   public int synthesis_read(int bytes){
     if(bytes!=0&&pcm_returned+bytes>centerW)
       return (-1);
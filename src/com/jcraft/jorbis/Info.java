@@ -97,6 +97,10 @@ public class Info{
 
   StaticCodeBook[] book_param=null;
 
+  // the setup header packet, which identifies the decoder's lookups in
+  // the SetupCache
+  byte[] setup=null;
+
   PsyInfo[] psy_param=new PsyInfo[64]; // encode only
 
   // for block long/sort tuning; encode only
@@ -148,6 +152,7 @@ public class Info{
     }
     //if(vi->book_param)free(vi->book_param);
     book_param=null;
+    setup=null;
 
     for(int i=0; i<psys; i++){
       psy_param[i].free();
@@ -347,7 +352,13 @@ public class Info{
               // um... we didn;t get the initial header or comments yet
               return (-1);
             }
-            return (unpack_books(opb));
+            int ret=unpack_books(opb);
+            if(ret!=0){
+              return (ret);
+            }
+            setup=new byte[op.bytes];
+            System.arraycopy(op.packet_base, op.packet, setup, 0, op.bytes);
+            return (0);
           default:
             // Not a valid vorbis header type
             //return(-1);
@@ -358,6 +369,24 @@ public class Info{
     return (-1);
   }
 
+  // True if op is the setup header of a stream whose identification
+  // header has gone into vi, and both are the ones this Info was unpacked
+  // from: the next link of a chained stream from the same encoder, which
+  // can go on with the books and lookups already built.
+  public boolean same_setup(Info vi, Packet op){
+    if(setup==null||vi.channels!=channels||vi.rate!=rate
+        ||vi.blocksizes[0]!=blocksizes[0]||vi.blocksizes[1]!=blocksizes[1]
+        ||op.bytes!=setup.length){
+      return (false);
+    }
+    for(int i=0; i<setup.length; i++){
+      if(op.packet_base[op.packet+i]!=setup[i]){
+        return (false);
+      }
+    }
+    return (true);
+  }
+
   // pack side
   int pack_info(Buffer opb){
     // preamble
@@ -0,0 +1,70 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+// A PcmSink that fills an array of interleaved float frames, the input a
+// mixer wants.  Like Pcm16.Packer it is pointed at the space to fill with
+// into(), takes as many frames as fit and never allocates.
+public class Interleaver implements PcmSink{
+  private float[] out;
+  private int pos, end;
+
+  // frames frames, each of one float per channel, from off on
+  public Interleaver into(float[] out, int off, int frames, int channels){
+    this.out=out;
+    pos=off;
+    end=off+frames*channels;
+    return (this);
+  }
+
+  // where the frames written so far end
+  public int position(){
+    return (pos);
+  }
+
+  public int accept(float[][] pcm, int offset, int samples){
+    int channels=pcm.length;
+    int n=Math.min(samples, (end-pos)/channels);
+    if(channels==2){
+      float[] left=pcm[0], right=pcm[1];
+      for(int j=0, k=pos; j<n; j++, k+=2){
+        out[k]=left[offset+j];
+        out[k+1]=right[offset+j];
+      }
+    }
+    else{
+      for(int i=0; i<channels; i++){
+        float[] src=pcm[i];
+        for(int j=0, k=pos+i; j<n; j++, k+=channels){
+          out[k]=src[offset+j];
+        }
+      }
+    }
+    pos+=n*channels;
+    return (n);
+  }
+}
@@ -0,0 +1,68 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+// The simple per sample loops of synthesis: undoing channel coupling,
+// windowing and overlap/add.  These are the scalar versions; VectorLoops
+// does the same with the Vector API, and Simd.loops() says which to use.
+// Both give the same result bit for bit.
+class Loops{
+
+  // Undo square polar coupling of n samples, in place.  With
+  // d=(mag>0 ? ang : -ang), a positive ang gives (mag, mag-d) and any
+  // other (mag+d, mag), which is the four way branch of the spec with
+  // only selects left, so nothing depends on predicting the signs.
+  void couple(float[] pcmM, float[] pcmA, int n){
+    couple(pcmM, pcmA, 0, n);
+  }
+
+  // samples from..n
+  static void couple(float[] pcmM, float[] pcmA, int from, int n){
+    for(int j=from; j<n; j++){
+      float mag=pcmM[j];
+      float ang=pcmA[j];
+      float d=mag>0 ? ang : -ang;
+      boolean up=ang>0;
+      pcmM[j]=up ? mag : mag+d;
+      pcmA[j]=up ? mag-d : mag;
+    }
+  }
+
+  // pcm[j]*=window[j] for the first n samples
+  void window(float[] pcm, float[] window, int n){
+    for(int j=0; j<n; j++){
+      pcm[j]*=window[j];
+    }
+  }
+
+  // dst[d+j]+=src[s+j] for j<n
+  void add(float[] dst, int d, float[] src, int s, int n){
+    for(int j=0; j<n; j++){
+      dst[d+j]+=src[s+j];
+    }
+  }
+}
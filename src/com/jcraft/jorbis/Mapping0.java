@@ -183,12 +183,7 @@ class Mapping0 extends FuncMapping{
     return info;
   }
 
-  float[][] pcmbundle=null;
-  int[] zerobundle=null;
-  int[] nonzero=null;
-  Object[] floormemo=null;
-
-  synchronized int inverse(Block vb, Object l){
+  int inverse(Block vb, Object l){
     DspState vd=vb.vd;
     Info vi=vd.vi;
     LookMapping0 look=(LookMapping0)l;
@@ -197,12 +192,23 @@ class Mapping0 extends FuncMapping{
     int n=vb.pcmend=vi.blocksizes[vb.W];
 
     float[] window=vd.window[vb.W][vb.lW][vb.nW][mode.windowtype];
-    if(pcmbundle==null||pcmbundle.length<vi.channels){
-      pcmbundle=new float[vi.channels][];
-      nonzero=new int[vi.channels];
-      zerobundle=new int[vi.channels];
-      floormemo=new Object[vi.channels];
+    if(vb.pcmbundle.length<vi.channels){
+      vb.pcmbundle=new float[vi.channels][];
+      vb.nonzero=new int[vi.channels];
+      vb.zerobundle=new int[vi.channels];
+      vb.floormemo=new Object[vi.channels];
+      vb.floorcurve=new Object[vi.channels];
+    }
+    if(vb.mdct_x.length<n/2){
+      // sized for a long block, like vb.pcm
+      vb.mdct_x=new float[vi.blocksizes[1]/2];
+      vb.mdct_w=new float[vi.blocksizes[1]/2];
     }
+    float[][] pcmbundle=vb.pcmbundle;
+    int[] zerobundle=vb.zerobundle;
+    int[] nonzero=vb.nonzero;
+    Object[] floormemo=vb.floormemo;
+    Object[] floorcurve=vb.floorcurve;
 
     // time domain information decode (note that applying the
     // information would have to happen later; we'll probably add a
@@ -214,9 +220,10 @@ class Mapping0 extends FuncMapping{
       float[] pcm=vb.pcm[i];
       int submap=info.chmuxlist[i];
 
-      floormemo[i]=look.floor_func[submap].inverse1(vb,
+      floorcurve[i]=look.floor_func[submap].inverse1(vb,
           look.floor_look[submap], floormemo[i]);
-      if(floormemo[i]!=null){
+      if(floorcurve[i]!=null){
+        floormemo[i]=floorcurve[i];
         nonzero[i]=1;
       }
       else{
@@ -255,35 +262,10 @@ class Mapping0 extends FuncMapping{
           zerobundle, ch_in_bundle);
     }
 
+    Loops loops=Simd.loops();
     for(int i=info.coupling_steps-1; i>=0; i--){
-      float[] pcmM=vb.pcm[info.coupling_mag[i]];
-      float[] pcmA=vb.pcm[info.coupling_ang[i]];
-
-      for(int j=0; j<n/2; j++){
-        float mag=pcmM[j];
-        float ang=pcmA[j];
-
-        if(mag>0){
-          if(ang>0){
-            pcmM[j]=mag;
-            pcmA[j]=mag-ang;
-          }
-          else{
-            pcmA[j]=mag;
-            pcmM[j]=mag+ang;
-          }
-        }
-        else{
-          if(ang>0){
-            pcmM[j]=mag;
-            pcmA[j]=mag+ang;
-          }
-          else{
-            pcmA[j]=mag;
-            pcmM[j]=mag-ang;
-          }
-        }
-      }
+      loops.couple(vb.pcm[info.coupling_mag[i]], vb.pcm[info.coupling_ang[i]],
+          n/2);
     }
 
     //    /* compute and apply spectral envelope */
@@ -292,7 +274,7 @@ class Mapping0 extends FuncMapping{
       float[] pcm=vb.pcm[i];
       int submap=info.chmuxlist[i];
       look.floor_func[submap].inverse2(vb, look.floor_look[submap],
-          floormemo[i], pcm);
+          floorcurve[i], pcm);
     }
 
     // transform the PCM data; takes PCM vector, vb; modifies PCM vector
@@ -301,7 +283,7 @@ class Mapping0 extends FuncMapping{
     for(int i=0; i<vi.channels; i++){
       float[] pcm=vb.pcm[i];
       //_analysis_output("out",seq+i,pcm,n/2,0,0);
-      ((Mdct)vd.transform[vb.W][0]).backward(pcm, pcm);
+      ((Mdct)vd.transform[vb.W][0]).backward(pcm, pcm, vb.mdct_x, vb.mdct_w);
     }
 
     // now apply the decoded pre-window time information
@@ -311,9 +293,7 @@ class Mapping0 extends FuncMapping{
     for(int i=0; i<vi.channels; i++){
       float[] pcm=vb.pcm[i];
       if(nonzero[i]!=0){
-        for(int j=0; j<n; j++){
-          pcm[j]*=window[j];
-        }
+        loops.window(pcm, window, n);
       }
       else{
         for(int j=0; j<n; j++){
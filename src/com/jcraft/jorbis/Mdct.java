@@ -83,18 +83,9 @@ class Mdct{
   void forward(float[] in, float[] out){
   }
 
-  float[] _x=new float[1024];
-  float[] _w=new float[1024];
-
-  synchronized void backward(float[] in, float[] out){
-    if(_x.length<n/2){
-      _x=new float[n/2];
-    }
-    if(_w.length<n/2){
-      _w=new float[n/2];
-    }
-    float[] x=_x;
-    float[] w=_w;
+  // x and w are scratch of at least n/2 floats, owned by the caller so
+  // one Mdct can serve any number of decoders at once
+  void backward(float[] in, float[] out, float[] x, float[] w){
     int n2=n>>>1;
     int n4=n>>>2;
     int n8=n>>>3;
@@ -154,68 +145,14 @@ class Mdct{
 
   private float[] mdct_kernel(float[] x, float[] w, int n, int n2, int n4,
       int n8){
-    // step 2
-
-    int xA=n4;
-    int xB=0;
-    int w2=n4;
-    int A=n2;
-
-    for(int i=0; i<n4;){
-      float x0=x[xA]-x[xB];
-      float x1;
-      w[w2+i]=x[xA++]+x[xB++];
-
-      x1=x[xA]-x[xB];
-      A-=4;
-
-      w[i++]=x0*trig[A]+x1*trig[A+1];
-      w[i]=x1*trig[A]-x0*trig[A+1];
-
-      w[w2+i]=x[xA++]+x[xB++];
-      i++;
-    }
+    mdct_butterfly_first(x, w);
 
     // step 3
-
-    {
-      for(int i=0; i<log2n-3; i++){
-        int k0=n>>>(i+2);
-        int k1=1<<(i+3);
-        int wbase=n2-2;
-
-        A=0;
-        float[] temp;
-
-        for(int r=0; r<(k0>>>2); r++){
-          int w1=wbase;
-          w2=w1-(k0>>1);
-          float AEv=trig[A], wA;
-          float AOv=trig[A+1], wB;
-          wbase-=2;
-
-          k0++;
-          for(int s=0; s<(2<<i); s++){
-            wB=w[w1]-w[w2];
-            x[w1]=w[w1]+w[w2];
-
-            wA=w[++w1]-w[++w2];
-            x[w1]=w[w1]+w[w2];
-
-            x[w2]=wA*AEv-wB*AOv;
-            x[w2-1]=wB*AEv+wA*AOv;
-
-            w1-=k0;
-            w2-=k0;
-          }
-          k0--;
-          A+=k1;
-        }
-
-        temp=w;
-        w=x;
-        x=temp;
-      }
+    for(int i=0; i<log2n-3; i++){
+      mdct_butterfly_stage(i, w, x);
+      float[] temp=w;
+      w=x;
+      x=temp;
     }
 
     // step 4, 5, 6, 7
@@ -247,4 +184,66 @@ class Mdct{
     }
     return (x);
   }
+
+  // step 2: from x to w.  VectorMdct has its own version of this and of
+  // mdct_butterfly_stage, which must stay bit for bit the same.
+  void mdct_butterfly_first(float[] x, float[] w){
+    int n2=n>>>1;
+    int n4=n>>>2;
+    int xA=n4;
+    int xB=0;
+    int w2=n4;
+    int A=n2;
+
+    for(int i=0; i<n4;){
+      float x0=x[xA]-x[xB];
+      float x1;
+      w[w2+i]=x[xA++]+x[xB++];
+
+      x1=x[xA]-x[xB];
+      A-=4;
+
+      w[i++]=x0*trig[A]+x1*trig[A+1];
+      w[i]=x1*trig[A]-x0*trig[A+1];
+
+      w[w2+i]=x[xA++]+x[xB++];
+      i++;
+    }
+  }
+
+  // one stage of step 3: from w to x
+  void mdct_butterfly_stage(int i, float[] w, float[] x){
+    int n2=n>>>1;
+    int k0=n>>>(i+2);
+    int k1=1<<(i+3);
+    int wbase=n2-2;
+    int w2;
+
+    int A=0;
+
+    for(int r=0; r<(k0>>>2); r++){
+      int w1=wbase;
+      w2=w1-(k0>>1);
+      float AEv=trig[A], wA;
+      float AOv=trig[A+1], wB;
+      wbase-=2;
+
+      k0++;
+      for(int s=0; s<(2<<i); s++){
+        wB=w[w1]-w[w2];
+        x[w1]=w[w1]+w[w2];
+
+        wA=w[++w1]-w[++w2];
+        x[w1]=w[w1]+w[w2];
+
+        x[w2]=wA*AEv-wB*AOv;
+        x[w2-1]=wB*AEv+wA*AOv;
+
+        w1-=k0;
+        w2-=k0;
+      }
+      k0--;
+      A+=k1;
+    }
+  }
 }
@@ -0,0 +1,227 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// Converts the float output of DspState.synthesis_pcmout to interleaved
+// signed 16 bit PCM.  Every decoder used to carry its own copy of this
+// loop; this one walks the output in order, one frame at a time, with
+// separate paths for mono and stereo, clamps without branches and never
+// allocates.  Samples are scaled by 32767 and truncated, as the players
+// always did, or with ROUND as VorbisFile.read always did.  With a
+// Dither, triangular noise of +-1 LSB is added and the result is rounded
+// instead.
+public class Pcm16{
+  // How a sample is scaled to 16 bits.  TRUNCATE multiplies by 32767 and
+  // truncates.  ROUND multiplies by 32768 and adds one half before
+  // truncating, as ov_read does, so full scale clamps to 32767.
+  public static final int TRUNCATE=0;
+  public static final int ROUND=1;
+
+  private static final VarHandle SHORT=
+    MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle INT=
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private Pcm16(){
+  }
+
+  // Pack samples frames of pcm[ch][index[ch]..] into out at off.
+  // Returns the number of bytes written, samples*channels*2.
+  public static int pack(float[][] pcm, int[] index, int channels, int samples,
+      byte[] out, int off, boolean bigendian){
+    return (pack(pcm, index, channels, samples, out, off, bigendian, null));
+  }
+
+  public static int pack(float[][] pcm, int[] index, int channels, int samples,
+      byte[] out, int off, boolean bigendian, Dither dither){
+    return (pack(pcm, index, 0, channels, samples, out, off, bigendian, dither,
+        TRUNCATE, 0));
+  }
+
+  // The same scaled by mode, and offset by 32768 into unsigned samples if
+  // sgned is false: what VorbisFile.read hands out.
+  public static int pack(float[][] pcm, int[] index, int channels, int samples,
+      byte[] out, int off, boolean bigendian, boolean sgned, int mode){
+    return (pack(pcm, index, 0, channels, samples, out, off, bigendian, null,
+        mode, sgned ? 0 : 0x8000));
+  }
+
+  // The same, with every channel starting at pcm[ch][offset], as handed
+  // to a PcmSink.
+  public static int pack(float[][] pcm, int offset, int channels, int samples,
+      byte[] out, int off, boolean bigendian, Dither dither){
+    return (pack(pcm, null, offset, channels, samples, out, off, bigendian,
+        dither, TRUNCATE, 0));
+  }
+
+  // Pack samples already interleaved, samples floats of src from s, into
+  // out at off.  A mixer sums its voices into such a buffer.
+  public static int pack(float[] src, int s, int samples, byte[] out, int off,
+      boolean bigendian){
+    interleave(src, s, 1, samples, out, off, bigendian, TRUNCATE, 0);
+    return (samples*2);
+  }
+
+  // channel i starts at index[i], or at offset if there is no index; flip
+  // is xored into every sample, 0x8000 making it unsigned
+  private static int pack(float[][] pcm, int[] index, int offset, int channels,
+      int samples, byte[] out, int off, boolean bigendian, Dither dither,
+      int mode, int flip){
+    if(dither!=null){
+      dither(pcm, index, offset, channels, samples, out, off, bigendian, dither);
+    }
+    else if(channels==1){
+      interleave(pcm[0], index!=null ? index[0] : offset, 1, samples, out, off,
+          bigendian, mode, flip);
+    }
+    else if(channels==2){
+      stereo(pcm[0], index!=null ? index[0] : offset, pcm[1],
+          index!=null ? index[1] : offset, samples, out, off, bigendian, mode,
+          flip);
+    }
+    else{
+      for(int i=0; i<channels; i++){
+        interleave(pcm[i], index!=null ? index[i] : offset, channels, samples,
+            out, off+2*i, bigendian, mode, flip);
+      }
+    }
+    return (samples*channels*2);
+  }
+
+  // (int) saturates, so only the 16 bit range is left to clamp
+  private static int clamp(float val, int mode){
+    int v=(mode==ROUND ? (int)(val*32768.+0.5) : (int)(val*32767.f));
+    return (Math.max(-32768, Math.min(32767, v)));
+  }
+
+  // One store per sample, or per stereo frame, instead of one per byte.
+  // Big endian output is byte swapped first; the test is hoisted out of
+  // the loops.
+  private static void stereo(float[] left, int l, float[] right, int r,
+      int samples, byte[] out, int off, boolean bigendian, int mode, int flip){
+    int flips=flip|flip<<16;
+    for(int j=0; j<samples; j++){
+      int frame=(clamp(left[l+j], mode)&0xffff)|(clamp(right[r+j], mode)<<16);
+      frame^=flips;
+      if(bigendian){
+        frame=Integer.reverseBytes(Integer.rotateLeft(frame, 16));
+      }
+      INT.set(out, off+4*j, frame);
+    }
+  }
+
+  private static void interleave(float[] src, int s, int channels, int samples,
+      byte[] out, int off, boolean bigendian, int mode, int flip){
+    int step=2*channels;
+    for(int j=0; j<samples; j++){
+      short val=(short)(clamp(src[s+j], mode)^flip);
+      SHORT.set(out, off+step*j, bigendian ? Short.reverseBytes(val) : val);
+    }
+  }
+
+  private static void dither(float[][] pcm, int[] index, int offset,
+      int channels, int samples, byte[] out, int off, boolean bigendian,
+      Dither dither){
+    int step=2*channels;
+    for(int i=0; i<channels; i++){
+      float[] src=pcm[i];
+      int s=(index!=null ? index[i] : offset);
+      for(int j=0, p=off+2*i; j<samples; j++, p+=step){
+        short val=(short)dither.round(src[s+j]*32767.f);
+        SHORT.set(out, p, bigendian ? Short.reverseBytes(val) : val);
+      }
+    }
+  }
+
+  // A PcmSink that packs into a byte array: point it at the space to fill
+  // with into(), let DspState push samples into it, and position() says
+  // where the packed bytes end.  It only takes whole frames, as many as
+  // fit.  Allocates nothing, so one can be kept for the life of a decoder.
+  public static class Packer implements PcmSink{
+    private final boolean bigendian;
+    private final Dither dither;
+    private byte[] out;
+    private int pos, end;
+
+    public Packer(boolean bigendian, Dither dither){
+      this.bigendian=bigendian;
+      this.dither=dither;
+    }
+
+    public Packer into(byte[] out, int off, int len){
+      this.out=out;
+      pos=off;
+      end=off+len;
+      return (this);
+    }
+
+    public int position(){
+      return (pos);
+    }
+
+    public int accept(float[][] pcm, int offset, int samples){
+      int channels=pcm.length;
+      int n=Math.min(samples, (end-pos)/(2*channels));
+      pos+=pack(pcm, null, offset, channels, n, out, pos, bigendian, dither,
+          TRUNCATE, 0);
+      return (n);
+    }
+  }
+
+  // Triangular (TPDF) dither.  Holds its own random state, so give each
+  // decoding thread its own.
+  public static class Dither{
+    private int seed;
+
+    public Dither(){
+      this(0x2545f491);
+    }
+
+    public Dither(int seed){
+      this.seed=(seed==0 ? 1 : seed);
+    }
+
+    // xorshift32, uniform in [0,1)
+    private float next(){
+      int x=seed;
+      x^=x<<13;
+      x^=x>>>17;
+      x^=x<<5;
+      seed=x;
+      return ((x>>>8)*(1.f/(1<<24)));
+    }
+
+    int round(float val){
+      val+=next()-next()+0.5f;
+      return (Math.max(-32768, Math.min(32767, (int)Math.floor(val))));
+    }
+  }
+}
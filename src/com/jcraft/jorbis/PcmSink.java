@@ -0,0 +1,42 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+// Where decoded samples go.  Instead of asking synthesis_pcmout for the
+// pending samples and calling synthesis_read after using them, a decode
+// loop can pass a sink to synthesis_pcmout(PcmSink) and DspState pushes
+// the samples into it.  Nothing is allocated on the way: the sink sees
+// the decoder's own buffers.  Pcm16.Packer packs 16 bit PCM into a byte
+// array, Interleaver fills an interleaved float array for a mixer and
+// PcmWriter writes a file.
+public interface PcmSink{
+  // Take up to samples samples of every channel, pcm[ch][offset] on.  The
+  // arrays belong to the decoder and are only valid during the call.
+  // Returns how many were taken; fewer than offered means the sink is
+  // full, and the rest stay pending in the decoder.
+  int accept(float[][] pcm, int offset, int samples);
+}
@@ -0,0 +1,137 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A PcmSink that writes 16 bit little endian PCM: raw to any stream, or
+// as a WAV file whose sizes are filled in by close().  Samples are packed
+// into one buffer and written a buffer at a time.  accept() cannot throw,
+// so a failed write stops the sink taking samples, and the IOException
+// comes out of the next flush() or close().
+public class PcmWriter implements PcmSink, Closeable{
+  private final OutputStream out;
+  private final RandomAccessFile file; // a WAV file, or null
+  private final byte[] buffer=new byte[8192];
+  private final Pcm16.Packer packer=new Pcm16.Packer(false, null);
+  private long written; // bytes written out
+  private IOException error;
+
+  public PcmWriter(OutputStream out){
+    this.out=out;
+    this.file=null;
+    packer.into(buffer, 0, buffer.length);
+  }
+
+  // a WAV file of the given format; its header is written now
+  public PcmWriter(File wav, int channels, int rate) throws IOException{
+    this.out=null;
+    this.file=new RandomAccessFile(wav, "rw");
+    file.setLength(0);
+    file.write(header(channels, rate, 0));
+    packer.into(buffer, 0, buffer.length);
+  }
+
+  // the 44 byte header of a WAV file holding bytes bytes of PCM
+  static byte[] header(int channels, int rate, long bytes){
+    byte[] h=new byte[44];
+    ByteBuffer b=ByteBuffer.wrap(h).order(ByteOrder.LITTLE_ENDIAN);
+    b.put("RIFF".getBytes()).putInt((int)(36+bytes)).put("WAVE".getBytes());
+    b.put("fmt ".getBytes()).putInt(16).putShort((short)1)
+        .putShort((short)channels).putInt(rate).putInt(rate*channels*2)
+        .putShort((short)(channels*2)).putShort((short)16);
+    b.put("data".getBytes()).putInt((int)bytes);
+    return (h);
+  }
+
+  public int accept(float[][] pcm, int offset, int samples){
+    int taken=0;
+    while(error==null&&taken<samples){
+      int n=packer.accept(pcm, offset+taken, samples-taken);
+      taken+=n;
+      if(n==0||packer.position()==buffer.length){
+        drain();
+      }
+    }
+    return (taken);
+  }
+
+  // the bytes of PCM written so far, including any still buffered
+  public long length(){
+    return (written+packer.position());
+  }
+
+  private void drain(){
+    int n=packer.position();
+    try{
+      if(file!=null){
+        file.write(buffer, 0, n);
+      }
+      else{
+        out.write(buffer, 0, n);
+      }
+      written+=n;
+    }
+    catch(IOException e){
+      error=e;
+    }
+    packer.into(buffer, 0, buffer.length);
+  }
+
+  public void flush() throws IOException{
+    drain();
+    if(error!=null){
+      throw error;
+    }
+    if(out!=null){
+      out.flush();
+    }
+  }
+
+  // flush, fill in the sizes of a WAV file and close it
+  public void close() throws IOException{
+    try{
+      flush();
+      if(file!=null){
+        file.seek(4);
+        file.write(header(0, 0, written), 4, 4);
+        file.seek(40);
+        file.write(header(0, 0, written), 40, 4);
+      }
+    }
+    finally{
+      if(file!=null){
+        file.close();
+      }
+      else{
+        out.close();
+      }
+    }
+  }
+}
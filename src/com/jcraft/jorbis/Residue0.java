@@ -153,10 +153,9 @@ class Residue0 extends FuncResidue{
   void free_look(Object i){
   }
 
-  private static int[][][] _01inverse_partword=new int[2][][]; // _01inverse is synchronized for
-
-  // re-using partword
-  synchronized static int _01inverse(Block vb, Object vl, float[][] in, int ch,
+  // The partition words are kept in the Block, so decoders running in
+  // different threads never share them and need no lock.
+  static int _01inverse(Block vb, Object vl, float[][] in, int ch,
       int decodepart){
     int i, j, k, l, s;
     LookResidue0 look=(LookResidue0)vl;
@@ -170,15 +169,7 @@ class Residue0 extends FuncResidue{
     int partvals=n/samples_per_partition;
     int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
 
-    if(_01inverse_partword.length<ch){
-      _01inverse_partword=new int[ch][][];
-    }
-
-    for(j=0; j<ch; j++){
-      if(_01inverse_partword[j]==null||_01inverse_partword[j].length<partwords){
-        _01inverse_partword[j]=new int[partwords][];
-      }
-    }
+    int[][][] partword=vb.partword(ch, partwords);
 
     for(s=0; s<look.stages; s++){
       // each loop decodes on partition codeword containing 
@@ -191,8 +182,8 @@ class Residue0 extends FuncResidue{
             if(temp==-1){
               return (0);
             }
-            _01inverse_partword[j][l]=look.decodemap[temp];
-            if(_01inverse_partword[j][l]==null){
+            partword[j][l]=look.decodemap[temp];
+            if(partword[j][l]==null){
               return (0);
             }
           }
@@ -202,12 +193,12 @@ class Residue0 extends FuncResidue{
         for(k=0; k<partitions_per_word&&i<partvals; k++, i++)
           for(j=0; j<ch; j++){
             int offset=info.begin+i*samples_per_partition;
-            int index=_01inverse_partword[j][l][k];
+            int index=partword[j][l][k];
             if((info.secondstages[index]&(1<<s))!=0){
               CodeBook stagebook=look.fullbooks[look.partbooks[index][s]];
               if(stagebook!=null){
                 if(decodepart==0){
-                  if(stagebook.decodevs_add(in[j], offset, vb.opb,
+                  if(stagebook.decodevs_add(in[j], offset, vb,
                       samples_per_partition)==-1){
                     return (0);
                   }
@@ -226,9 +217,7 @@ class Residue0 extends FuncResidue{
     return (0);
   }
 
-  static int[][] _2inverse_partword=null;
-
-  synchronized static int _2inverse(Block vb, Object vl, float[][] in, int ch){
+  static int _2inverse(Block vb, Object vl, float[][] in, int ch){
     int i, k, l, s;
     LookResidue0 look=(LookResidue0)vl;
     InfoResidue0 info=look.info;
@@ -241,9 +230,7 @@ class Residue0 extends FuncResidue{
     int partvals=n/samples_per_partition;
     int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
 
-    if(_2inverse_partword==null||_2inverse_partword.length<partwords){
-      _2inverse_partword=new int[partwords][];
-    }
+    int[][] partword=vb.partword(1, partwords)[0];
     for(s=0; s<look.stages; s++){
       for(i=0, l=0; i<partvals; l++){
         if(s==0){
@@ -252,8 +239,8 @@ class Residue0 extends FuncResidue{
           if(temp==-1){
             return (0);
           }
-          _2inverse_partword[l]=look.decodemap[temp];
-          if(_2inverse_partword[l]==null){
+          partword[l]=look.decodemap[temp];
+          if(partword[l]==null){
             return (0);
           }
         }
@@ -261,7 +248,7 @@ class Residue0 extends FuncResidue{
         // now we decode residual values for the partitions
         for(k=0; k<partitions_per_word&&i<partvals; k++, i++){
           int offset=info.begin+i*samples_per_partition;
-          int index=_2inverse_partword[l][k];
+          int index=partword[l][k];
           if((info.secondstages[index]&(1<<s))!=0){
             CodeBook stagebook=look.fullbooks[look.partbooks[index][s]];
             if(stagebook!=null){
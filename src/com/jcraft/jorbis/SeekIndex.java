@@ -0,0 +1,285 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.*;
+import java.io.*;
+import java.util.Arrays;
+
+// Where the pages of an Ogg Vorbis file are, so VorbisFile can open and
+// seek without hunting for them.  For every logical bitstream (link) it
+// keeps the byte offset the link starts at, its serial number and length
+// in samples, and the granule position and byte offset of every nth page
+// that has one.  It is built by one pass over the file and kept next to
+// it as file+".sidx"; VorbisFile(String) picks it up by itself.  With it,
+// open skips the bisection for links and the last page, and pcm_seek
+// goes straight to the page before the target instead of bisecting with
+// a read per step.
+public class SeekIndex{
+  static final int MAGIC=0x53494458; // "SIDX"
+  static final int VERSION=1;
+  public static final String SUFFIX=".sidx";
+
+  long length; // of the file indexed
+  int every;
+  int links;
+  long[] offsets; // links+1, the last is the end of the file
+  int[] serialnos;
+  long[] pcmlengths;
+  long[][] granules; // per link, ascending
+  long[][] pages; // the offset of the page with each granule
+
+  private SeekIndex(){
+  }
+
+  // Index the file, keeping every nth page that ends a packet.  Only a
+  // chain can be indexed: every link must begin with its first page and
+  // end before the next begins, with a serial number of its own.  A file
+  // with streams multiplexed, whose pages interleave, is refused; the
+  // bisection VorbisFile falls back on does not handle those either.
+  public static SeekIndex scan(String file, int every) throws IOException{
+    if(every<1){
+      throw new IllegalArgumentException("every must be at least 1, not "+every);
+    }
+    SeekIndex x=new SeekIndex();
+    x.every=every;
+    long[] offsets=new long[4];
+    int[] serialnos=new int[4];
+    long[] pcmlengths=new long[4];
+    long[][] granules=new long[4][];
+    long[][] pages=new long[4][];
+    long[] g=new long[256], p=new long[256];
+    int n=0, seen=0;
+    int link=-1;
+
+    SyncState oy=new SyncState();
+    Page og=new Page();
+    long offset=0;
+    try(InputStream in=new FileInputStream(file)){
+      while(true){
+        int more=oy.pageseek(og);
+        if(more<0){
+          offset-=more;
+          continue;
+        }
+        if(more==0){
+          int index=oy.buffer(VorbisFile.CHUNKSIZE);
+          int bytes=in.read(oy.data, index, VorbisFile.CHUNKSIZE);
+          if(bytes<=0){
+            break;
+          }
+          oy.wrote(bytes);
+          continue;
+        }
+        if(link>=0&&og.serialno()==serialnos[link]&&og.bos()!=0){
+          throw new IOException(file+": stream "+og.serialno()
+              +" begins twice; not indexed");
+        }
+        if(link<0||og.serialno()!=serialnos[link]){
+          if(og.bos()==0){
+            throw new IOException(file+": the page at "+offset
+                +" is in the middle of another stream; multiplexed or damaged, not indexed");
+          }
+          for(int i=0; i<link; i++){
+            if(serialnos[i]==og.serialno()){
+              throw new IOException(file+": stream "+og.serialno()
+                  +" comes back after another; multiplexed, not indexed");
+            }
+          }
+          if(link>=0){
+            granules[link]=Arrays.copyOf(g, n);
+            pages[link]=Arrays.copyOf(p, n);
+          }
+          link++;
+          if(link+1>=offsets.length){
+            offsets=Arrays.copyOf(offsets, 2*offsets.length);
+            serialnos=Arrays.copyOf(serialnos, offsets.length);
+            pcmlengths=Arrays.copyOf(pcmlengths, offsets.length);
+            granules=Arrays.copyOf(granules, offsets.length);
+            pages=Arrays.copyOf(pages, offsets.length);
+          }
+          offsets[link]=offset;
+          serialnos[link]=og.serialno();
+          n=seen=0;
+        }
+        long granulepos=og.granulepos();
+        if(granulepos!=-1){
+          pcmlengths[link]=granulepos;
+          if(seen++%every==0){
+            if(n==g.length){
+              g=Arrays.copyOf(g, 2*n);
+              p=Arrays.copyOf(p, 2*n);
+            }
+            g[n]=granulepos;
+            p[n++]=offset;
+          }
+        }
+        offset+=more;
+      }
+    }
+    if(link<0){
+      throw new IOException(file+" has no Ogg pages");
+    }
+    granules[link]=Arrays.copyOf(g, n);
+    pages[link]=Arrays.copyOf(p, n);
+    x.links=link+1;
+    offsets[x.links]=offset;
+    x.length=offset;
+    x.offsets=Arrays.copyOf(offsets, x.links+1);
+    x.serialnos=Arrays.copyOf(serialnos, x.links);
+    x.pcmlengths=Arrays.copyOf(pcmlengths, x.links);
+    x.granules=Arrays.copyOf(granules, x.links);
+    x.pages=Arrays.copyOf(pages, x.links);
+    return (x);
+  }
+
+  public static File sidecar(String file){
+    return (new File(file+SUFFIX));
+  }
+
+  // Index the file and write the sidecar, keeping every nth page.
+  public static SeekIndex create(String file, int every) throws IOException{
+    SeekIndex x=scan(file, every);
+    x.write(sidecar(file));
+    return (x);
+  }
+
+  public void write(File f) throws IOException{
+    try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(f)))){
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(length);
+      out.writeInt(every);
+      out.writeInt(links);
+      for(int i=0; i<links; i++){
+        out.writeLong(offsets[i]);
+        out.writeInt(serialnos[i]);
+        out.writeLong(pcmlengths[i]);
+        out.writeInt(granules[i].length);
+        for(int j=0; j<granules[i].length; j++){
+          out.writeLong(granules[i][j]);
+          out.writeLong(pages[i][j]);
+        }
+      }
+      out.writeLong(offsets[links]);
+    }
+  }
+
+  // The sidecar of the file, or null if there is none, it cannot be read
+  // or it was made for a file of another length.
+  public static SeekIndex load(String file){
+    File f=sidecar(file);
+    if(!f.isFile()){
+      return (null);
+    }
+    try(DataInputStream in=new DataInputStream(new BufferedInputStream(
+        new FileInputStream(f)))){
+      if(in.readInt()!=MAGIC||in.readInt()!=VERSION){
+        return (null);
+      }
+      SeekIndex x=new SeekIndex();
+      x.length=in.readLong();
+      if(x.length!=new File(file).length()){
+        return (null); // stale
+      }
+      x.every=in.readInt();
+      x.links=in.readInt();
+      x.offsets=new long[x.links+1];
+      x.serialnos=new int[x.links];
+      x.pcmlengths=new long[x.links];
+      x.granules=new long[x.links][];
+      x.pages=new long[x.links][];
+      for(int i=0; i<x.links; i++){
+        x.offsets[i]=in.readLong();
+        x.serialnos[i]=in.readInt();
+        x.pcmlengths[i]=in.readLong();
+        int n=in.readInt();
+        x.granules[i]=new long[n];
+        x.pages[i]=new long[n];
+        for(int j=0; j<n; j++){
+          x.granules[i][j]=in.readLong();
+          x.pages[i][j]=in.readLong();
+        }
+      }
+      x.offsets[x.links]=in.readLong();
+      return (x);
+    }
+    catch(IOException e){
+      return (null);
+    }
+  }
+
+  // The offset of the last indexed page of the link whose granule
+  // position is below target, or the start of the link if there is none.
+  // Decoding from there reaches target, as from the page pcm_seek's
+  // bisection finds.
+  long find(int link, long target){
+    long[] g=granules[link];
+    int lo=0, hi=g.length; // the first entry >= target
+    while(lo<hi){
+      int mid=(lo+hi)>>>1;
+      if(g[mid]<target){
+        lo=mid+1;
+      }
+      else{
+        hi=mid;
+      }
+    }
+    return (lo>0 ? pages[link][lo-1] : offsets[link]);
+  }
+
+  // java com.jcraft.jorbis.SeekIndex [-every n] file.ogg ...
+  // writes the sidecar of each file
+  public static void main(String[] arg) throws IOException{
+    int every=1;
+    for(int i=0; i<arg.length; i++){
+      if(arg[i].equals("-every")&&i+1<arg.length){
+        every=Integer.parseInt(arg[++i]);
+        if(every<1){
+          System.err.println("-every must be at least 1");
+          System.exit(1);
+        }
+        continue;
+      }
+      SeekIndex x=create(arg[i], every);
+      int entries=0;
+      for(int j=0; j<x.links; j++){
+        entries+=x.granules[j].length;
+      }
+      System.err.println(arg[i]+": "+x.links+" link(s), "+entries+" pages");
+    }
+  }
+
+  public int getLinks(){
+    return (links);
+  }
+
+  public long getLength(){
+    return (length);
+  }
+}
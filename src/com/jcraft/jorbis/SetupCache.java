@@ -0,0 +1,115 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// The lookups DspState.init builds from the headers: the MDCTs, the
+// windows, the decoding codebooks and the per mode backend lookups.  None
+// of them change once built, and streams from the same encoder at the
+// same quality carry byte for byte the same setup header, so they are
+// built once per distinct header and shared by every DspState in the
+// process.  The cache is keyed by a hash of the setup packet and the
+// identification fields the lookups depend on; a hit is confirmed by
+// comparing the whole packet.
+class SetupCache{
+  // distinct setups kept; the least recently used one goes first
+  static final int CACHED=16;
+
+  private static final Map<Long, SetupCache> cache=new LinkedHashMap<Long, SetupCache>(
+      CACHED, 0.75f, true){
+    protected boolean removeEldestEntry(Map.Entry<Long, SetupCache> eldest){
+      return (size()>CACHED);
+    }
+  };
+
+  final byte[] header;
+  final int channels;
+  final int rate;
+  final int blocksize0;
+  final int blocksize1;
+  final boolean simd; // the MDCTs are Simd's vector ones
+
+  final Object[][] transform;
+  final float[][][][][] window;
+  final CodeBook[] fullbooks;
+  final Object[] mode;
+
+  private SetupCache(Info vi, DspState vd){
+    header=vi.setup;
+    channels=vi.channels;
+    rate=vi.rate;
+    blocksize0=vi.blocksizes[0];
+    blocksize1=vi.blocksizes[1];
+    simd=vd.transform[0][0].getClass()!=Mdct.class;
+    transform=vd.transform;
+    window=vd.window;
+    fullbooks=vd.fullbooks;
+    mode=vd.mode;
+  }
+
+  // the lookups built earlier for vi's headers, or null
+  static synchronized SetupCache find(Info vi){
+    if(vi.setup==null){
+      return (null);
+    }
+    SetupCache s=cache.get(hash(vi));
+    if(s==null||!s.matches(vi)){
+      return (null);
+    }
+    return (s);
+  }
+
+  // remember the lookups vd has just built for vi
+  static synchronized void add(Info vi, DspState vd){
+    if(vi.setup!=null){
+      cache.put(hash(vi), new SetupCache(vi, vd));
+    }
+  }
+
+  private boolean matches(Info vi){
+    return (simd==Simd.enabled()&&channels==vi.channels&&rate==vi.rate
+        &&blocksize0==vi.blocksizes[0]&&blocksize1==vi.blocksizes[1]
+        &&Arrays.equals(header, vi.setup));
+  }
+
+  // 64 bit FNV-1a
+  private static long hash(Info vi){
+    long h=0xcbf29ce484222325L;
+    h=(h^vi.channels)*0x100000001b3L;
+    h=(h^vi.rate)*0x100000001b3L;
+    h=(h^vi.blocksizes[0])*0x100000001b3L;
+    h=(h^vi.blocksizes[1])*0x100000001b3L;
+    byte[] b=vi.setup;
+    for(int i=0; i<b.length; i++){
+      h=(h^(b[i]&0xff))*0x100000001b3L;
+    }
+    return (h);
+  }
+}
@@ -0,0 +1,96 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/* JOrbis
+ * Copyright (C) 2000 ymnk, JCraft,Inc.
+ *
+ * Written by: 2000 ymnk<ymnk@jcraft.com>
+ *
+ * Many thanks to
+ *   Monty <monty@xiph.org> and
+ *   The XIPHOPHORUS Company http://www.xiph.org/ .
+ * JOrbis has been based on their awesome works, Vorbis codec.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public License
+ * as published by the Free Software Foundation; either version 2 of
+ * the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package com.jcraft.jorbis;
+
+// Chooses between the scalar inner loops of the decoder and versions of
+// them written with the incubating Vector API (jdk.incubator.vector).
+// Those live in src-vector and are compiled only when the build runs on
+// JDK 17 or later.  They are used only when the JVM was started with
+//   --add-modules jdk.incubator.vector
+// and -Djorbis.simd=false turns them off.  Either way the decoded PCM is
+// bit for bit the same.
+public class Simd{
+  private static final Class<?> mdct=find("com.jcraft.jorbis.VectorMdct");
+  private static final Loops scalar=new Loops();
+  private static final Loops vector=make(find("com.jcraft.jorbis.VectorLoops"));
+
+  private static volatile boolean enabled=available()
+      &&!"false".equals(System.getProperty("jorbis.simd"));
+
+  private Simd(){
+  }
+
+  // whether the vector versions are here and the JVM can run them
+  public static boolean available(){
+    return (mdct!=null&&vector!=null);
+  }
+
+  // whether decoders set up from now on use them
+  public static boolean enabled(){
+    return (enabled);
+  }
+
+  public static void setEnabled(boolean on){
+    enabled=on&&available();
+  }
+
+  static Loops loops(){
+    return (enabled ? vector : scalar);
+  }
+
+  static Mdct mdct(){
+    if(enabled){
+      try{
+        return ((Mdct)mdct.getDeclaredConstructor().newInstance());
+      }
+      catch(ReflectiveOperationException e){
+      }
+    }
+    return (new Mdct());
+  }
+
+  private static Loops make(Class<?> c){
+    try{
+      return (c==null ? null : (Loops)c.getDeclaredConstructor().newInstance());
+    }
+    catch(ReflectiveOperationException e){
+      return (null);
+    }
+  }
+
+  private static Class<?> find(String name){
+    if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()){
+      return (null);
+    }
+    try{
+      return (Class.forName(name));
+    }
+    catch(ClassNotFoundException|LinkageError e){
+      return (null);
+    }
+  }
+}
@@ -34,6 +34,7 @@ import java.io.IOException;
 
 public class VorbisFile{
   static final int CHUNKSIZE=8500;
+  static final int MAXPAGE=27+255+255*255; // header, lacing and body
   static final int SEEK_SET=0;
   static final int SEEK_CUR=1;
   static final int SEEK_END=2;
@@ -69,6 +70,9 @@ public class VorbisFile{
   Info[] vi;
   Comment[] vc;
 
+  SeekIndex index; // where the pages are, if the file has a sidecar
+  int reads; // chunks read from the file, which is what opening and seeking cost
+
   // Decoding working state local storage
   long pcm_offset;
   boolean decode_ready=false;
@@ -85,6 +89,13 @@ public class VorbisFile{
   // the packet->PCM decoder
   Block vb=new Block(vd); // local working space for packet->PCM decode
 
+  // process_packet's page and packet, and where read() is handed the
+  // decoded samples; kept here so reading allocates nothing
+  private final Page og=new Page();
+  private final Packet op=new Packet();
+  private final float[][][] _pcm=new float[1][][];
+  private int[] _index=new int[0];
+
   //ov_callbacks callbacks;
 
   public VorbisFile(String file) throws JOrbisException{
@@ -92,23 +103,24 @@ public class VorbisFile{
     InputStream is=null;
     try{
       is=new SeekableInputStream(file);
+      index=SeekIndex.load(file);
       int ret=open(is, null, 0);
       if(ret==-1){
         throw new JOrbisException("VorbisFile: open return -1");
       }
     }
     catch(Exception e){
-      throw new JOrbisException("VorbisFile: "+e.toString());
-    }
-    finally{
+      // the file stays open for read() unless opening failed; close()
+      // closes it
       if(is!=null){
         try{
           is.close();
         }
-        catch(IOException e){
-          e.printStackTrace();
+        catch(IOException ee){
+          ee.printStackTrace();
         }
       }
+      throw new JOrbisException("VorbisFile: "+e.toString());
     }
   }
 
@@ -126,14 +138,15 @@ public class VorbisFile{
     int bytes=0;
     try{
       bytes=datasource.read(buffer, index, CHUNKSIZE);
+      reads++;
     }
     catch(Exception e){
       return OV_EREAD;
     }
-    oy.wrote(bytes);
     if(bytes==-1){
       bytes=0;
     }
+    oy.wrote(bytes);
     return bytes;
   }
 
@@ -350,8 +363,12 @@ public class VorbisFile{
       }
 
       // get the serial number and PCM length of this link. To do this,
-      // get the last page of the stream
-      {
+      // get the last page of the stream, unless the index knows
+      if(index!=null){
+        serialnos[i]=index.serialnos[i];
+        pcmlengths[i]=index.pcmlengths[i];
+      }
+      else{
         long end=offsets[i+1]; //!!!
         seek_helper(end);
 
@@ -376,8 +393,12 @@ public class VorbisFile{
   private int make_decode_ready(){
     if(decode_ready)
       System.exit(1);
-    vd.synthesis_init(vi[0]);
+    // a chained file has the headers of each of its links
+    vd.synthesis_init(vi[seekable ? current_link : 0]);
     vb.init(vd);
+    if(_index.length<vd.vi.channels){
+      _index=new int[vd.vi.channels];
+    }
     decode_ready=true;
     return (0);
   }
@@ -405,6 +426,16 @@ public class VorbisFile{
     fseek(datasource, 0, SEEK_END);
     offset=ftell(datasource);
     end=offset;
+    if(index!=null&&(index.length!=end||index.serialnos[0]!=serialno)){
+      index=null; // not this file
+    }
+    if(index!=null){
+      // the links are in the index; no need to look for them
+      links=index.links;
+      offsets=index.offsets.clone();
+      prefetch_all_headers(initial_i, initial_c, dataoffset);
+      return (raw_seek(dataoffset));
+    }
     // We get the offset for the last page of the physical bitstream.
     // Most OggVorbis files will contain a single logical bitstream
     end=get_prev_page(og);
@@ -425,7 +456,9 @@ public class VorbisFile{
       }
     }
     prefetch_all_headers(initial_i, initial_c, dataoffset);
-    return 0;
+    // finding the links left us at the end of the file; go back to the
+    // first audio page, as vorbisfile does
+    return (raw_seek(dataoffset));
   }
 
   int open_nonseekable(){
@@ -466,15 +499,12 @@ public class VorbisFile{
   //          1) got a packet 
 
   int process_packet(int readp){
-    Page og=new Page();
-
     // handle one packet.  Try to fetch it from current stream state
     // extract packets from page
     while(true){
       // process a packet if we can.  If the machine isn't loaded,
       // neither is a page
       if(decode_ready){
-        Packet op=new Packet();
         int result=os.packetout(op);
         long granulepos;
         // if(result==-1)return(-1); // hole in the data. For now, swallow
@@ -677,6 +707,9 @@ public class VorbisFile{
     datasource=is;
 
     oy.init();
+    // room for a chunk after the largest page that can be left over, so
+    // the sync buffer never has to grow while reading
+    oy.buffer(CHUNKSIZE+MAXPAGE);
 
     // perhaps some data was previously read into a buffer for testing
     // against other stream types.  Allow initialization from this
@@ -944,6 +977,11 @@ public class VorbisFile{
       long begin=offsets[link];
       int best=(int)begin;
 
+      if(index!=null){
+        // one look up instead of a read per step
+        best=(int)index.find(link, target);
+        begin=end;
+      }
       Page og=new Page();
       while(begin<end){
         long bisect;
@@ -959,7 +997,7 @@ public class VorbisFile{
         seek_helper(bisect);
         ret=get_next_page(og, end-bisect);
 
-        if(ret==-1){
+        if(ret<0){
           end=bisect;
         }
         else{
@@ -1000,9 +1038,7 @@ public class VorbisFile{
     // logical bitstream boundary with abandon is OK.
     while(pcm_offset<pos){
       int target=(int)(pos-pcm_offset);
-      float[][][] _pcm=new float[1][][];
-      int[] _index=new int[getInfo(-1).channels];
-      int samples=vd.synthesis_pcmout(_pcm, _index);
+      int samples=vd.synthesis_pcmout(null, null);
 
       if(samples>target)
         samples=target;
@@ -1205,19 +1241,16 @@ public class VorbisFile{
 
   int read(byte[] buffer, int length, int bigendianp, int word, int sgned,
       int[] bitstream){
-    int host_endian=host_is_big_endian();
     int index=0;
 
     while(true){
       if(decode_ready){
         float[][] pcm;
-        float[][][] _pcm=new float[1][][];
-        int[] _index=new int[getInfo(-1).channels];
         int samples=vd.synthesis_pcmout(_pcm, _index);
         pcm=_pcm[0];
         if(samples!=0){
           // yay! proceed to pack data into the byte buffer
-          int channels=getInfo(-1).channels;
+          int channels=vd.vi.channels; // the Info of the current link
           int bytespersample=word*channels;
           if(samples>length/bytespersample)
             samples=length/bytespersample;
@@ -1239,71 +1272,8 @@ public class VorbisFile{
               }
             }
             else{
-              int off=(sgned!=0 ? 0 : 32768);
-
-              if(host_endian==bigendianp){
-                if(sgned!=0){
-                  for(int i=0; i<channels; i++){ // It's faster in this order
-                    int src=_index[i];
-                    int dest=i;
-                    for(int j=0; j<samples; j++){
-                      val=(int)(pcm[i][src+j]*32768.+0.5);
-                      if(val>32767)
-                        val=32767;
-                      else if(val<-32768)
-                        val=-32768;
-                      buffer[dest]=(byte)(val>>>8);
-                      buffer[dest+1]=(byte)(val);
-                      dest+=channels*2;
-                    }
-                  }
-                }
-                else{
-                  for(int i=0; i<channels; i++){
-                    float[] src=pcm[i];
-                    int dest=i;
-                    for(int j=0; j<samples; j++){
-                      val=(int)(src[j]*32768.+0.5);
-                      if(val>32767)
-                        val=32767;
-                      else if(val<-32768)
-                        val=-32768;
-                      buffer[dest]=(byte)((val+off)>>>8);
-                      buffer[dest+1]=(byte)(val+off);
-                      dest+=channels*2;
-                    }
-                  }
-                }
-              }
-              else if(bigendianp!=0){
-                for(int j=0; j<samples; j++){
-                  for(int i=0; i<channels; i++){
-                    val=(int)(pcm[i][j]*32768.+0.5);
-                    if(val>32767)
-                      val=32767;
-                    else if(val<-32768)
-                      val=-32768;
-                    val+=off;
-                    buffer[index++]=(byte)(val>>>8);
-                    buffer[index++]=(byte)val;
-                  }
-                }
-              }
-              else{
-                //int val;
-                for(int j=0; j<samples; j++){
-                  for(int i=0; i<channels; i++){
-                    val=(int)(pcm[i][j]*32768.+0.5);
-                    if(val>32767)
-                      val=32767;
-                    else if(val<-32768)
-                      val=-32768;
-                    val+=off;
-                    buffer[index++]=(byte)val;
-                    buffer[index++]=(byte)(val>>>8);
-                  }
-                }
-              }
+              index+=Pcm16.pack(pcm, _index, channels, samples, buffer, index,
+                  bigendianp!=0, sgned!=0, Pcm16.ROUND);
             }
           }
 
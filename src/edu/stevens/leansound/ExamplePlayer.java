@@ -17,6 +17,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownServiceException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.*;
 import javax.sound.sampled.AudioFormat;
@@ -65,6 +66,15 @@ public class ExamplePlayer implements Runnable {
     // The source data line onto which data can be written.
     private SourceDataLine outputLine = null;
 
+    /*
+     * The size of the line's buffer and of each write to it, in frames; 0
+     * leaves them as they were, the sound system's default buffer and
+     * 4KB writes. Every write goes through lineStats to catch underruns.
+     */
+    private int lineBufferFrames = 0;
+    private int chunkFrames = 0;
+    private final LineStats lineStats = new LineStats();
+
     // A three-dimensional an array with PCM information. 
     private float[][][] pcmInfo;
 
@@ -83,23 +93,48 @@ public class ExamplePlayer implements Runnable {
     private Comment jorbisComment = new Comment();
     private Info jorbisInfo = new Info();
 
+    /*
+     * A stream may be chained, one logical stream after another as Icecast
+     * relays send them. The headers of the next link are read into these,
+     * and pages of any other stream multiplexed with ours are skipped.
+     */
+    private Comment nextComment = new Comment();
+    private Info nextInfo = new Info();
+    private int serial;       // of the link being played
+    private int headers;      // header packets of the link read so far
+    private boolean lastPage; // the page holding the end of the link was read
+
     //Itay Addition:
     private static class Sound {
         public InputStream s;
         public int delay;
-        public Sound(InputStream s, int delay) { this.s = s; this.delay = delay; }
-        public void doDelay() {
-             if (delay > 0) {
-                try {
-                    Thread.sleep(delay);
-                } catch(InterruptedException e) {
-                }
-             }
-        }
+        public String name;
+        public Sound(InputStream s, int delay) { this(s, delay, "clip"); }
+        public Sound(InputStream s, int delay, String name) { this.s = s; this.delay = delay; this.name = name; }
     }
     private Queue<Sound> clips;
 //    private ArrayList<InputStream> clips = new ArrayList();
-    private boolean playing = true;
+
+    // Playing is a job on the shared scheduler; this pauses and stops it.
+    private volatile PlaybackScheduler.Control control = new PlaybackScheduler.Control();
+
+    /*
+     * In gapless mode the clips are played by Voices, one line is kept open
+     * for as long as the format stays the same, and each clip is opened
+     * while the one before it is still playing.
+     */
+    private boolean gapless = false;
+
+    /*
+     * A clip opened ahead of time: its headers are read, its decoder is set
+     * up and its first block of samples is already decoded into first.
+     */
+    private static class Queued {
+        final Voice voice = new Voice();
+        byte[] first;
+        int firstLength;
+        int delay;
+    }
 
     /**
      * The programs <code>main()</code> method. Will read the first command-line
@@ -118,6 +153,10 @@ public class ExamplePlayer implements Runnable {
         if (url != null) {
             ExamplePlayer examplePlayer = new ExamplePlayer(url);
             examplePlayer.play();
+            try {
+                examplePlayer.await();
+            } catch (InterruptedException e) {
+            }
         } else {
             System.err.println("Please provide an argument with file to play.");
         }
@@ -129,7 +168,11 @@ public class ExamplePlayer implements Runnable {
      * @param pUrl the URL to be opened
      */
     public ExamplePlayer(String pUrl) {
+        this();
         configureInputStream(getUrl(pUrl));
+        if (inputStream != null) {
+            clips.add(new Sound(inputStream, 0, pUrl));
+        }
     }
 
     /**
@@ -155,7 +198,8 @@ public class ExamplePlayer implements Runnable {
     }
 
     private ExamplePlayer(InputStream is) {
-        inputStream = is;
+        this();
+        clips.add(new Sound(is, 0));
     }
 
     /**
@@ -193,22 +237,43 @@ public class ExamplePlayer implements Runnable {
      * However, it will - if no problems occur - call methods to initialize the
      * JOgg JOrbis libraries, read the header, initialize the sound system, read
      * the body of the stream and clean up.
+     * This plays the queue on the calling thread; play() runs it on the
+     * shared scheduler instead.
      */
     public void run() {
-        while (true) {
+        PlaybackScheduler.Control c = new PlaybackScheduler.Control();
+        control = c;
+        try {
+            play(c);
+        } finally {
+            c.finish();
+        }
+    }
+
+    /**
+     * Plays clips until the queue is empty or c is stopped.
+     */
+    private void play(PlaybackScheduler.Control c) {
+        if (gapless) {
+            playGapless(c);
+            return;
+        }
+        while (c.proceed()) {
+            Sound sound;
             synchronized(this) {
-                /*
-                while (clips.isEmpty()) {
-                    try {
-                        clips.wait(); // wait to be woken up when someone adds a new sound
-                    } catch(InterruptedException e) {}
+                sound = clips.poll();
+            }
+            if (sound == null)
+                break; // the queue has been played
+            inputStream = sound.s;
+            // the delay is outside the lock, so adding to the queue or
+            // stopping need not wait for it, and a stop cuts it short
+            if (!c.delay(sound.delay * 1000000L)) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
                 }
-                */
-                Sound sound = clips.remove();
-                if (sound == null)
-                    continue;
-                inputStream = sound.s;
-                sound.doDelay();
+                break;
             }
 
             // Initialize JOrbis.
@@ -220,7 +285,7 @@ public class ExamplePlayer implements Runnable {
               */
              if (readHeader()) {
                  if (initializeSound()) {
-                    readBody();
+                    readBody(c);
                  }
              }
 
@@ -328,6 +393,7 @@ public class ExamplePlayer implements Runnable {
                             // Initializes and resets StreamState.
                             joggStreamState.init(joggPage.serialno());
                             joggStreamState.reset();
+                            serial = joggPage.serialno();
 
                             // Initializes the Info and Comment objects.
                             jorbisInfo.init();
@@ -519,8 +585,8 @@ public class ExamplePlayer implements Runnable {
 
         boolean needMoreData = true;
         do {
-            //Stop mid Sound if playing is false
-            if (!playing)
+            // Wait here while paused, stop mid Sound if asked to
+            if (!control.proceed())
                 return; // early exit, termination  of clip requested by programmer
             if (joggSyncState.pageout(joggPage) == 1) {
                 // Give the page to the StreamState object.
@@ -579,7 +645,7 @@ public class ExamplePlayer implements Runnable {
         debugOutput("Initializing the sound system.");
 
         // This buffer is used by the decoding method.
-        convertedBufferSize = bufferSize * 2;
+        convertedBufferSize = chunkFrames > 0 ? chunkFrames * 2 * jorbisInfo.channels : bufferSize * 2;
         convertedBuffer = new byte[convertedBufferSize];
 
         // Initializes the DSP synthesis.
@@ -589,9 +655,29 @@ public class ExamplePlayer implements Runnable {
         jorbisBlock.init(jorbisDspState);
 
         // Wee need to know the channels and rate.
-        int channels = jorbisInfo.channels;
-        int rate = jorbisInfo.rate;
+        if (!openLine(jorbisInfo.channels, jorbisInfo.rate)) {
+            return false;
+        }
 
+        /*
+		 * We create the PCM variables. The index is an array with the same
+		 * length as the number of audio channels.
+         */
+        pcmInfo = new float[1][][];
+        pcmIndex = new int[jorbisInfo.channels];
+
+        debugOutput("Done initializing the sound system.");
+
+        return true;
+    }
+
+    /**
+     * Opens and starts a line for 16-bit little-endian samples in the given
+     * format.
+     *
+     * @return true if the line was opened, false otherwise
+     */
+    private boolean openLine(int channels, int rate) {
         // Creates an AudioFormat object and a DataLine.Info object.
         AudioFormat audioFormat = new AudioFormat((float) rate, 16, channels,
                 true, false);
@@ -610,7 +696,11 @@ public class ExamplePlayer implements Runnable {
          */
         try {
             outputLine = (SourceDataLine) AudioSystem.getLine(datalineInfo);
-            outputLine.open(audioFormat);
+            if (lineBufferFrames > 0) {
+                outputLine.open(audioFormat, lineBufferFrames * audioFormat.getFrameSize());
+            } else {
+                outputLine.open(audioFormat);
+            }
         } catch (LineUnavailableException exception) {
             System.out.println("The audio output line could not be opened due "
                     + "to resource restrictions.");
@@ -629,24 +719,19 @@ public class ExamplePlayer implements Runnable {
 
         // Start it.
         outputLine.start();
-
-        /*
-		 * We create the PCM variables. The index is an array with the same
-		 * length as the number of audio channels.
-         */
-        pcmInfo = new float[1][][];
-        pcmIndex = new int[jorbisInfo.channels];
-
-        debugOutput("Done initializing the sound system.");
-
+        lineStats.opened();
         return true;
     }
 
     /**
      * This method reads the entire stream body. Whenever it extracts a packet,
      * it will decode it by calling <code>decodeCurrentPacket()</code>.
+     * A chained stream is played link after link until the input ends; the
+     * headers of each new link are taken in by <code>linkHeader()</code>.
+     * Between pages it waits while c is paused, and gives up if c is
+     * stopped.
      */
-    private void readBody() {
+    private void readBody(PlaybackScheduler.Control c) {
         debugOutput("Reading the body.");
 
         /*
@@ -654,95 +739,153 @@ public class ExamplePlayer implements Runnable {
 		 * more data, we will continue to read from the InputStream.
          */
         boolean needMoreData = true;
+        headers = 3;
+        lastPage = false;
 
         while (needMoreData) {
-            //Stop mid Sound if playing is false
-            if (playing) {
-                switch (joggSyncState.pageout(joggPage)) {
-                    // If there is a hole in the data, we just proceed.
-                    case -1: {
-                        debugOutput("There is a hole in the data. We proceed.");
-                    }
-
-                    // If we need more data, we break to get it.
-                    case 0: {
-                        break;
-                    }
+            // Wait here while paused, stop mid Sound if asked to
+            if (c.isPaused()) {
+                lineStats.idle(); // the line runs dry on purpose
+            }
+            if (!c.proceed()) {
+                break;
+            }
+            switch (joggSyncState.pageout(joggPage)) {
+                // If there is a hole in the data, we just proceed.
+                case -1: {
+                    debugOutput("There is a hole in the data. We proceed.");
+                }
 
-                    // If we have successfully checked out a page, we continue.
-                    case 1: {
-                        // Give the page to the StreamState object.
-                        joggStreamState.pagein(joggPage);
+                // If we need more data, we break to get it.
+                case 0: {
+                    break;
+                }
 
-                        // If granulepos() returns "0", we don't need more data.
-                        if (joggPage.granulepos() == 0) {
-                            needMoreData = false;
-                            break;
-                        }
+                // If we have successfully checked out a page, we continue.
+                case 1: {
+                    if (lastPage && joggPage.bos() != 0) {
+                        // The first page of the next link: read its headers.
+                        serial = joggPage.serialno();
+                        joggStreamState.init(serial);
+                        headers = 0;
+                    } else if (lastPage || joggPage.serialno() != serial) {
+                        // A page of another stream; take the next page.
+                        continue;
+                    }
 
-                        // Here is where we process the packets.
-                        processPackets:
-                        while (true) {
-                            switch (joggStreamState.packetout(joggPacket)) {
-                                // Is it a hole in the data?
-                                case -1: {
-                                    debugOutput("There is a hole in the data, we "
-                                            + "continue though.");
-                                }
+                    // Give the page to the StreamState object.
+                    joggStreamState.pagein(joggPage);
+                    lastPage = joggPage.eos() != 0;
+
+                    // Here is where we process the packets.
+                    processPackets:
+                    while (true) {
+                        switch (joggStreamState.packetout(joggPacket)) {
+                            // Is it a hole in the data?
+                            case -1: {
+                                debugOutput("There is a hole in the data, we "
+                                        + "continue though.");
+                            }
 
-                                // If we need more data, we break to get it.
-                                case 0: {
-                                    break processPackets;
-                                }
+                            // If we need more data, we break to get it.
+                            case 0: {
+                                break processPackets;
+                            }
 
-                                /*
+                            /*
 							 * If we have the data we need, we decode the
-							 * packet.
-                                 */
-                                case 1: {
+							 * packet, or take in the header of a new link.
+                             */
+                            case 1: {
+                                if (headers == 3) {
                                     decodeCurrentPacket();
+                                } else if (!linkHeader()) {
+                                    return;
                                 }
                             }
                         }
-
-                        /*
-					 * If the page is the end-of-stream, we don't need more
-					 * data.
-                         */
-                        if (joggPage.eos() != 0) {
-                            needMoreData = false;
-                        }
                     }
-                }
 
-                // If we need more data...
-                if (needMoreData) {
-                    // We get the new index and an updated buffer.
-                    index = joggSyncState.buffer(bufferSize);
-                    buffer = joggSyncState.data;
-
-                    // Read from the InputStream.
-                    try {
-                        count = inputStream.read(buffer, index, bufferSize);
-                    } catch (Exception e) {
-                        System.err.println(e);
-                        return;
-                    }
+                    // Take out the next page before reading more data.
+                    continue;
+                }
+            }
 
-                    // We let SyncState know how many bytes we read.
-                    joggSyncState.wrote(count);
+            // We get the new index and an updated buffer.
+            index = joggSyncState.buffer(bufferSize);
+            buffer = joggSyncState.data;
 
-                    // There's no more data in the stream.
-                    if (count == 0) {
-                        needMoreData = false;
-                    }
-                }
-            } else debugOutput("waiting to resume");
+            // Read from the InputStream.
+            try {
+                count = inputStream.read(buffer, index, bufferSize);
+            } catch (Exception e) {
+                System.err.println(e);
+                return;
+            }
 
+            // There's no more data in the stream.
+            if (count <= 0) {
+                needMoreData = false;
+            } else {
+                // We let SyncState know how many bytes we read.
+                joggSyncState.wrote(count);
+            }
         }
         debugOutput("Done reading the body.");
     }
 
+    /**
+     * Takes in a header packet of the next link of a chained stream. Once
+     * all three are in, decoding starts over on the new link. If its setup
+     * is the one already loaded, its books are not even unpacked and only
+     * the DspState is restarted; if its format differs, the line is drained
+     * and a new one opened. A stream that is not vorbis is skipped.
+     *
+     * @return false if the new link cannot be played
+     */
+    private boolean linkHeader() {
+        if (headers == 0) {
+            nextInfo.init();
+            nextComment.init();
+        }
+        if (headers == 2 && jorbisInfo.same_setup(nextInfo, joggPacket)) {
+            debugOutput("Next link, same setup.");
+            headers++;
+            Comment comment = jorbisComment;
+            jorbisComment = nextComment;
+            nextComment = comment;
+            jorbisDspState.synthesis_restart();
+            return true;
+        }
+        if (nextInfo.synthesis_headerin(nextComment, joggPacket) < 0) {
+            debugOutput("Skipping a stream that is not vorbis.");
+            joggStreamState.reset();
+            lastPage = true;
+            headers = 0;
+            return true;
+        }
+        if (++headers < 3) {
+            return true;
+        }
+        debugOutput("Next link.");
+        Info info = jorbisInfo;
+        jorbisInfo = nextInfo;
+        nextInfo = info;
+        Comment comment = jorbisComment;
+        jorbisComment = nextComment;
+        nextComment = comment;
+        if (info.channels == jorbisInfo.channels && info.rate == jorbisInfo.rate) {
+            jorbisDspState.synthesis_init(jorbisInfo);
+            jorbisBlock.init(jorbisDspState);
+            return true;
+        }
+        debugOutput("Format changed, reopening the line.");
+        outputLine.drain();
+        outputLine.close();
+        outputLine = null;
+        return initializeSound();
+    }
+
     /**
      * A clean-up method, called when everything is finished. Clears the
      * JOgg/JOrbis objects and closes the <code>InputStream</code>.
@@ -794,65 +937,203 @@ public class ExamplePlayer implements Runnable {
         while ((samples = jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex))
                 > 0) {
             // We need to know for how many samples we are going to process.
-            if (samples < convertedBufferSize) {
-                range = samples;
-            } else {
-                range = convertedBufferSize;
-            }
+            int fit = convertedBufferSize / (2 * jorbisInfo.channels);
+            range = samples < fit ? samples : fit;
 
-            // For each channel...
-            for (int i = 0; i < jorbisInfo.channels; i++) {
-                int sampleIndex = i * 2;
+            // Interleave the channels into 16-bit little-endian samples.
+            Pcm16.pack(pcmInfo[0], pcmIndex, jorbisInfo.channels, range,
+                    convertedBuffer, 0, false);
 
-                // For every sample in our range...
-                for (int j = 0; j < range; j++) {
-                    /*
-					 * Get the PCM value for the channel at the correct
-					 * position.
-                     */
-                    int value = (int) (pcmInfo[0][i][pcmIndex[i] + j] * 32767);
+            // Write the buffer to the audio output line.
+            lineStats.write(outputLine, convertedBuffer, 0, 2 * jorbisInfo.channels
+                    * range);
 
-                    /*
-					 * We make sure our value doesn't exceed or falls below
-					 * +-32767.
-                     */
-                    if (value > 32767) {
-                        value = 32767;
-                    }
-                    if (value < -32768) {
-                        value = -32768;
-                    }
+            // Update the DspState object.
+            jorbisDspState.synthesis_read(range);
+        }
+    }
 
-                    /*
-					 * It the value is less than zero, we bitwise-or it with
-					 * 32768 (which is 1000000000000000 = 10^15).
-                     */
-                    if (value < 0) {
-                        value = value | 32768;
-                    }
+    /**
+     * Plays the queue without gaps. While one clip plays, the next one is
+     * opened and its first block decoded, so it is ready the moment the
+     * one playing runs out. The line stays open from clip to clip, and is only
+     * drained and reopened when the next clip has a different format. The
+     * delay before a clip is written to the line as silence.
+     */
+    private void playGapless(PlaybackScheduler.Control c) {
+        convertedBufferSize = bufferSize * 2;
+        convertedBuffer = new byte[convertedBufferSize];
+        Queued current = new Queued(), next = new Queued();
+        boolean more = prefetch(current);
+        queue:
+        while (more) {
+            Voice voice = current.voice;
+            if (!lineFor(voice)) {
+                break;
+            }
+            if (!writeSilence(c, current.delay) || !write(c, current.first, current.firstLength)) {
+                break;
+            }
 
-                    /*
-					 * Take our value and split it into two, one with the last
-					 * byte and one with the first byte.
-                     */
-                    convertedBuffer[sampleIndex] = (byte) (value);
-                    convertedBuffer[sampleIndex + 1] = (byte) (value >>> 8);
+            // Open the next clip once the line has plenty of this one to
+            // play meanwhile, or when this one runs out, if sooner.
+            // Writes are whole chunks, but for the last of the clip.
+            boolean fetched = false;
+            int n, len = 0;
+            while ((n = voice.read(convertedBuffer, len, convertedBufferSize - len)) >= 0) {
+                if (n == 0) { // the next link of a chained clip has another format
+                    if (!write(c, convertedBuffer, len) || !lineFor(voice)) {
+                        break queue;
+                    }
+                    len = 0;
+                    continue;
+                }
+                len += n;
+                if (len < convertedBufferSize) {
+                    continue;
+                }
+                if (!write(c, convertedBuffer, len)) {
+                    break;
+                }
+                len = 0;
+                if (!fetched && outputLine.available() <= outputLine.getBufferSize() / 2) {
+                    more = prefetch(next);
+                    fetched = true;
+                }
+            }
+            if (c.isStopped() || !write(c, convertedBuffer, len)) {
+                break;
+            }
+            if (!fetched) {
+                more = prefetch(next);
+            }
+            Queued played = current;
+            current = next;
+            next = played;
+        }
+        if (outputLine != null) {
+            if (c.isStopped()) {
+                outputLine.flush();
+            } else {
+                outputLine.drain();
+            }
+            outputLine.close();
+            outputLine = null;
+        }
+        debugOutput("Done playing the queue.");
+    }
 
-                    /*
-					 * Move the sample index forward by two (since that's how
-					 * many values we get at once) times the number of channels.
-                     */
-                    sampleIndex += 2 * (jorbisInfo.channels);
+    /**
+     * Takes the next clip off the queue and gets it ready to play. Clips
+     * that cannot be read are reported and skipped.
+     *
+     * @return false if the queue is empty
+     */
+    private boolean prefetch(Queued q) {
+        while (true) {
+            Sound sound;
+            synchronized (this) {
+                sound = clips.poll();
+            }
+            if (sound == null) {
+                return false;
+            }
+            try {
+                byte[] ogg;
+                try (InputStream s = sound.s) {
+                    ogg = s.readAllBytes();
                 }
+                SoundClip clip = new SoundClip(sound.name, 0, ogg.length, 0, 0, 0);
+                clip.data = ByteBuffer.wrap(ogg);
+                q.voice.open(clip);
+                if (q.first == null) {
+                    q.first = new byte[convertedBufferSize];
+                }
+                q.firstLength = q.voice.read(q.first, 0, q.first.length);
+                q.delay = sound.delay;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not play " + sound.name + ": " + e);
             }
+        }
+    }
 
-            // Write the buffer to the audio output line.
-            outputLine.write(convertedBuffer, 0, 2 * jorbisInfo.channels
-                    * range);
+    /**
+     * Gets a line for the voice's format, as reopenLine() does, and sizes
+     * the writes to it.
+     *
+     * @return true if there is a line to write to
+     */
+    private boolean lineFor(Voice voice) {
+        if (!reopenLine(voice.getChannels(), voice.getRate())) {
+            return false;
+        }
+        if (chunkFrames > 0) {
+            convertedBufferSize = chunkFrames * outputLine.getFormat().getFrameSize();
+            if (convertedBuffer.length < convertedBufferSize) {
+                convertedBuffer = new byte[convertedBufferSize];
+            }
+        }
+        return true;
+    }
 
-            // Update the DspState object.
-            jorbisDspState.synthesis_read(range);
+    /**
+     * Keeps the open line if it already has this format, otherwise lets it
+     * finish playing and opens one that does.
+     *
+     * @return true if there is a line to write to
+     */
+    private boolean reopenLine(int channels, int rate) {
+        if (outputLine != null) {
+            AudioFormat f = outputLine.getFormat();
+            if (f.getChannels() == channels && f.getSampleRate() == rate) {
+                return true;
+            }
+            debugOutput("Format changed, reopening the line.");
+            outputLine.drain();
+            outputLine.close();
+            outputLine = null;
         }
+        return openLine(channels, rate);
+    }
+
+    /**
+     * Writes len bytes to the line, a chunk at a time, waiting first while
+     * c is paused.
+     *
+     * @return false if c has been stopped
+     */
+    private boolean write(PlaybackScheduler.Control c, byte[] b, int len) {
+        if (c.isPaused()) {
+            lineStats.idle(); // the line runs dry on purpose
+        }
+        if (!c.proceed()) {
+            return false;
+        }
+        int chunk = convertedBufferSize - convertedBufferSize % outputLine.getFormat().getFrameSize();
+        for (int off = 0; off < len; off += chunk) {
+            lineStats.write(outputLine, b, off, Math.min(chunk, len - off));
+        }
+        return true;
+    }
+
+    /**
+     * Writes ms milliseconds of silence to the line.
+     *
+     * @return false if c has been stopped
+     */
+    private boolean writeSilence(PlaybackScheduler.Control c, int ms) {
+        AudioFormat f = outputLine.getFormat();
+        int bytes = (int) ((long) ms * (int) f.getSampleRate() / 1000) * f.getFrameSize();
+        Arrays.fill(convertedBuffer, (byte) 0);
+        while (bytes > 0) {
+            int n = Math.min(bytes, convertedBufferSize - convertedBufferSize % f.getFrameSize());
+            if (!write(c, convertedBuffer, n)) {
+                return false;
+            }
+            bytes -= n;
+        }
+        return true;
     }
 
     /**
@@ -873,30 +1154,88 @@ public class ExamplePlayer implements Runnable {
     }
 
     public synchronized void addClip(String filename) {
+        addClip(filename, 30);
+    }
+
+    /**
+     * Queues a clip to be played after delay milliseconds of quiet.
+     */
+    public synchronized void addClip(String filename, int delay) {
         try {
-            clips.add(new Sound(new FileInputStream(filename), 30));
+            clips.add(new Sound(new FileInputStream(filename), delay, filename));
         } catch (FileNotFoundException e) {
             System.err.println("Could not find file!");
         }
     }
 
+    /**
+     * Sizes the output line: it holds bufferFrames and is written
+     * chunkFrames at a time (at most; the old one line per clip mode writes
+     * what each packet decodes to). A smaller buffer means less delay and more
+     * risk of underruns, which getLineStats() counts. 0 keeps the default.
+     * Takes effect when the next line is opened.
+     */
+    public void setLineBuffer(int bufferFrames, int chunkFrames) {
+        lineBufferFrames = bufferFrames;
+        this.chunkFrames = chunkFrames;
+    }
+
+    /**
+     * @return underruns and how full the line has been
+     */
+    public LineStats getLineStats() {
+        return lineStats;
+    }
+
+    /**
+     * Plays the queue without gaps between clips. Must be set before
+     * play() is called.
+     */
+    public void setGapless(boolean gapless) {
+        this.gapless = gapless;
+    }
+
     public synchronized void clearQueue() {
         clips.clear();
     }
 
+    /**
+     * Pauses playing where it is; continueCurrentSong() carries on.
+     */
     public void stopCurrentSong() {
-        playing = false;
+        control.pause();
         debugOutput("Pausing Song");
     }
     
     public void continueCurrentSong(){
-        playing = true;
+        control.resume();
         debugOutput("Resuming Song");
 
     }
+
+    /**
+     * Stops playing, whether paused or not, and drops the rest of the queue.
+     */
+    public void stop() {
+        clearQueue();
+        control.stop();
+    }
+
+    /**
+     * Starts playing the queue as a job on the shared scheduler, on a
+     * virtual thread if the JVM has them.
+     */
     public void play() {
-        Thread t = new Thread(this);
-        t.start(); // because java threads are annoying and once terminated must be thrown away
+        control = PlaybackScheduler.getShared().submit(this::play);
+    }
+
+    /**
+     * Waits until the queue has been played or playing was stopped. The
+     * scheduler's threads do not keep the program running, so a main()
+     * that only plays something should end with this.
+     */
+    public void await() throws InterruptedException {
+        control.await();
     }
 
 }
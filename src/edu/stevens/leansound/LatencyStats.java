@@ -0,0 +1,41 @@
+package edu.stevens.leansound;
+
+/**
+ * @author Dov Kruger
+ *
+ * How long clips take from being triggered to their first sample reaching
+ * the output. The SoundMixer records one measurement per clip: the time
+ * from the call that started it to the mixing of the block holding its
+ * first sample, plus the time that block then waits behind what the line
+ * has already queued.
+ */
+public class LatencyStats {
+    private int count;
+    private long total, min = Long.MAX_VALUE, max, last; // nanoseconds
+
+    synchronized void record(long nanos) {
+        count++;
+        total += nanos;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+        last = nanos;
+    }
+
+    public synchronized void clear() {
+        count = 0;
+        total = max = last = 0;
+        min = Long.MAX_VALUE;
+    }
+
+    public synchronized int getCount() { return count; }
+    public synchronized double getMeanMillis() { return count == 0 ? 0 : total / 1e6 / count; }
+    public synchronized double getMinMillis() { return count == 0 ? 0 : min / 1e6; }
+    public synchronized double getMaxMillis() { return max / 1e6; }
+    public synchronized double getLastMillis() { return last / 1e6; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LatencyStats[%d clips, trigger to first sample %.2f ms mean, %.2f min, %.2f max]",
+                count, getMeanMillis(), getMinMillis(), getMaxMillis());
+    }
+}
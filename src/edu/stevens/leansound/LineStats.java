@@ -0,0 +1,93 @@
+package edu.stevens.leansound;
+
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * @author Dov Kruger
+ *
+ * Watches a SourceDataLine for underruns. A player sends its writes
+ * through write(); just before each one, the line is checked: if it has
+ * played everything written to it (its frame position has caught up, or
+ * available() says the whole buffer is free), the sound has gone silent
+ * for lack of data and an underrun is counted. How full the line was is
+ * recorded at each of those writes, so the buffer size can be traded
+ * against the risk of running dry on each machine.
+ * A player that lets the line run dry on purpose, because it has nothing
+ * to play or has just opened a new line, calls idle() first.
+ */
+public class LineStats {
+    private long writes, underruns, filled;
+    private long framesWritten;  // since the line was opened
+    private boolean primed;      // something was written, and not on purpose left to run out
+    private int bufferBytes, frameSize, chunkBytes;
+    // the fraction of the buffer queued before each write that was checked
+    private double fill, minFill = 1, totalFill;
+
+    /**
+     * Write to the line, checking first whether it has run dry
+     */
+    public void write(SourceDataLine line, byte[] b, int off, int len) {
+        int size = line.getBufferSize();
+        int available = line.available();
+        long played = line.getLongFramePosition();
+        synchronized (this) {
+            if (primed) { // an empty line now is an underrun
+                if (available >= size || played >= framesWritten) {
+                    underruns++;
+                }
+                fill = size == 0 ? 0 : (double) (size - available) / size;
+                minFill = Math.min(minFill, fill);
+                totalFill += fill;
+                filled++;
+            }
+            bufferBytes = size;
+            frameSize = line.getFormat().getFrameSize();
+            chunkBytes = Math.max(chunkBytes, len);
+            writes++;
+            framesWritten += len / frameSize;
+            primed = true;
+        }
+        line.write(b, off, len);
+    }
+
+    /**
+     * The line is about to run dry on purpose, or has just been opened:
+     * do not count it as an underrun.
+     */
+    public synchronized void idle() {
+        primed = false;
+    }
+
+    /**
+     * A new line was opened; its frame position starts again from zero
+     */
+    public synchronized void opened() {
+        primed = false;
+        framesWritten = 0;
+    }
+
+    public synchronized void clear() {
+        writes = underruns = filled = 0;
+        chunkBytes = 0;
+        minFill = 1;
+        totalFill = fill = 0;
+    }
+
+    public synchronized long getWrites() { return writes; }
+    public synchronized long getUnderruns() { return underruns; }
+    /** @return the line's buffer, in frames */
+    public synchronized int getBufferFrames() { return frameSize == 0 ? 0 : bufferBytes / frameSize; }
+    /** @return the size of the biggest write, in frames */
+    public synchronized int getChunkFrames() { return frameSize == 0 ? 0 : chunkBytes / frameSize; }
+    /** @return how full the buffer was before the last write, 0 to 1 */
+    public synchronized double getFill() { return fill; }
+    public synchronized double getMinFill() { return filled == 0 ? 0 : minFill; }
+    public synchronized double getMeanFill() { return filled == 0 ? 0 : totalFill / filled; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LineStats[%d frame buffer, %d frame writes, %d writes, %d underruns,"
+                + " fill %.0f%% mean, %.0f%% min]", getBufferFrames(), getChunkFrames(), writes,
+                underruns, 100 * getMeanFill(), 100 * getMinFill());
+    }
+}
@@ -13,78 +13,75 @@ package edu.stevens.leansound;
  * 
  * Usage:
  * LoadSounds sounds("sounds.sdb", "dir"); // names mapped to file names (without ogg)
- * sounds.add("shot", "gunshot.ogg"); // manually add a sound and a name
- * sounds.save(); // write out the sounds
+ * sounds.save(); // write out the sounds, with a table of names and offsets
  * 
  * At runtime in a game
  * LoadSounds sounds = LoadSounds.fastLoad("sounds.sdb");
- * sounds.play("gunshot"); // play until complete
- * sounds.play("bachpreludes");
+ * sounds.play(LoadSounds.SOUNDEFFECT, "gunshot"); // plays alongside other effects
+ * sounds.play(LoadSounds.MUSIC, "bachpreludes");
  * 
- * If a sound is long (like a music soundtrack) I would like to be able to stop it.
- * The original code is a thread, which is not great.  I made this one Runnable, also not great.
- * Instead I would suggest we create a pool of threads and somehow identify which one should be used.
- * perhaps:
+ * If a sound is long (like a music soundtrack) it can be stopped.
+ * Clips are played by a VoiceEngine, a fixed pool of threads per channel,
+ * each with its own Voice, all mixed into one line by a SoundMixer:
  * 
- * sounds.stopPlaying(BACKGROUND_MUSIC);
- * sounds.play(BACKGROUND_MUSIC, "punktheme"); // start new music going
+ * sounds.stop(LoadSounds.BACKGROUND);
+ * sounds.play(LoadSounds.BACKGROUND, "punktheme"); // start new music going
  * 
- * the default should be that clips added to a thread get added onto a queue
+ * An effect that has to sound the instant it is fired is preloaded, and
+ * then triggered instead of played:
+ * sounds.preload("gunshot", 2); // two hot voices, so shots can overlap
+ * sounds.trigger("gunshot");
+ * 
+ * clips added to a channel get added onto its queue
  */
 
 import com.jcraft.jogg.*;
 import com.jcraft.jorbis.*;
 import java.io.*;
-import javax.sound.sampled.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
 	Load sounds into RAM so they can be played quickly without I/O
  */
-public class LoadSounds implements Runnable {
-    // for efficiency, store the sampled bytes from all files in one huge byte array
-
-    private byte[] sounds;
-    // index by name into the array to find each file
-    private HashMap<String, Integer> offsets;
+public class LoadSounds {
+    // for efficiency, store the sampled bytes from all files in one huge block.
+    // A database opened with fastLoad is mapped, so the block stays off the heap
+    // and is shared through the page cache by every process that opens the file
+
+    private ByteBuffer sounds;
+    // index by name into the array to find each file, kept in storage order
+    private LinkedHashMap<String, SoundClip> clips;
     private String audioDBName;
-    int cursor; // position within sounds
-    //TODO: we need one cursor for each thread.  Perhaps create sounds in one class
-    // and the players can be in another class
-
-    // files are completely read into RAM so sounds can be played quickly
-    private byte[] convertedBuffer; // decompressed sound buffer for playing
-    private int convertedBufferSize; // in case smaller than convertedBuffer.length
 
     /*
-	 * JOgg and JOrbis require fields for the converted buffer. This is a buffer
-	 * that is modified in regards to the number of audio channels. Naturally,
-	 * it will also need a size.
+     * Layout of the database file, all numbers big-endian:
+     *   "LSDB", int version, int number of clips
+     *   per clip: UTF name, int offset, int length, int channels, int rate, long granules
+     *   the ogg bytes of every clip back to back; offsets are relative to here
      */
-    // The source data line onto which data can be written.
-    private SourceDataLine outputLine;
-
-    // A three-dimensional an array with PCM information. 
-    private float[][][] pcmInfo;
-
-    // The index for the PCM information.
-    private int[] pcmIndex;
-
-    // Here are the four required JOgg objects...
-    private byte[] buffer;
-    private int bufferSize; // TODO: buffers should be local to each thread
-    private Packet joggPacket;
-    private Page joggPage;
-    private StreamState joggStreamState;
-    private SyncState joggSyncState;
-
-    // ... followed by the four required JOrbis objects.
-    private DspState jorbisDspState;
-    private Block jorbisBlock;
-    private Comment jorbisComment;
-    private Info jorbisInfo;
-    
-    /* 3 kindsof sounds, each assigned their own thread */
+    private static final int MAGIC = 0x4c534442; // "LSDB"
+    private static final int VERSION = 1;
+
+    // reads the headers of clips while loading; players have their own voices
+    private final Voice loader = new Voice();
+
+    // short sound effects decoded ahead of time, null unless cachePcm was called
+    private PcmCache pcmCache;
+    private double maxCachedSeconds;
+    // evicted clips being decoded back into the cache
+    private final Set<String> refilling = ConcurrentHashMap.newKeySet();
+
+    // the threads that play clips, started by the first call to play
+    private VoiceEngine engine;
+    private int bufferFrames = SoundMixer.BUFFER_FRAMES, chunkFrames = SoundMixer.BLOCK_FRAMES;
+
+    /* 3 kindsof sounds, each assigned their own threads */
     public static final int SOUNDEFFECT = 0;
     public static final int MUSIC = 1;
     public static final int BACKGROUND = 2;
@@ -94,30 +91,199 @@ public class LoadSounds implements Runnable {
      *
      */
     public LoadSounds(String audioDBName, String dirName) {
-        outputLine = null;
-        this.audioDBName = audioDBName;
-        joggPacket = new Packet();
-        joggPage = new Page();
-        joggStreamState = new StreamState();
-        joggSyncState = new SyncState();
-
-        jorbisDspState = new DspState();
-        jorbisBlock = new Block(jorbisDspState);
-        jorbisComment = new Comment();
-        jorbisInfo = new Info();
-        initializeJOrbis(); // initialize the library once
-        offsets = new HashMap<>(64);
-        bufferSize = 2048;
-        buffer = new byte[bufferSize];
+        this(audioDBName);
         load(dirName);
     }
 
-    public void finalize() {
-        joggStreamState.clear();
-        jorbisBlock.clear();
-        jorbisDspState.clear();
-        jorbisInfo.clear();
-        joggSyncState.clear();
+    private LoadSounds(String audioDBName) {
+        this.audioDBName = audioDBName;
+        clips = new LinkedHashMap<>(64);
+    }
+
+    /**
+     * Open a database written by save() by mapping the whole file read-only.
+     * No directory is scanned and no ogg header is parsed; the table of
+     * contents says where every clip is and what format it has, and each
+     * clip is a slice of the mapping, so nothing is copied onto the heap.
+     * A Voice decodes the pages where they are in the mapping; as for a
+     * clip on the heap, only the packets are put together in its own
+     * memory.
+     * The database is our own, so the checksums of its ogg pages are not
+     * checked when the clips are played.
+     */
+    public static LoadSounds fastLoad(String audioDBName) throws IOException {
+        return fastLoad(audioDBName, false);
+    }
+
+    /**
+     * Open a database written by save(), checking every ogg page against
+     * its checksum as it is decoded if verify is set, as for a database
+     * that may have been damaged.
+     */
+    public static LoadSounds fastLoad(String audioDBName, boolean verify) throws IOException {
+        final MappedByteBuffer db;
+        try (FileChannel fc = FileChannel.open(Paths.get(audioDBName), StandardOpenOption.READ)) {
+            db = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        } // the mapping stays valid after the channel is closed
+
+        DataInputStream toc = new DataInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return db.hasRemaining() ? db.get() & 0xff : -1;
+            }
+        });
+        if (db.limit() < 12 || toc.readInt() != MAGIC) {
+            throw new IOException(audioDBName + " is not a sound database");
+        }
+        int version = toc.readInt();
+        if (version != VERSION) {
+            throw new IOException(audioDBName + ": unsupported version " + version);
+        }
+        LoadSounds s = new LoadSounds(audioDBName);
+        int count = toc.readInt();
+        SoundClip[] table = new SoundClip[count];
+        for (int i = 0; i < count; i++) {
+            table[i] = new SoundClip(toc.readUTF(), toc.readInt(), toc.readInt(),
+                    toc.readInt(), toc.readInt(), toc.readLong());
+        }
+        int payload = db.position(); // the table is done, sounds start here
+        db.position(0);
+        s.sounds = db;
+        for (SoundClip c : table) {
+            if (c.getLength() < 0 || c.getOffset() < 0
+                    || payload + c.getOffset() + c.getLength() > db.limit()) {
+                throw new IOException(audioDBName + ": clip " + c.getName() + " is truncated");
+            }
+            c.offset += payload;
+            c.trusted = !verify;
+            s.add(c);
+        }
+        return s;
+    }
+
+    /*
+     * Register a clip, giving it a view of its bytes in the sounds block
+     */
+    private void add(SoundClip c) {
+        ByteBuffer view = sounds.duplicate();
+        view.limit(c.getOffset() + c.getLength()).position(c.getOffset());
+        c.data = view.slice();
+        clips.put(c.getName(), c);
+    }
+
+    /**
+     * @return the clip stored under this name, or null if there is none
+     */
+    public SoundClip getClip(String name) {
+        return clips.get(name);
+    }
+
+    public Collection<SoundClip> getClips() {
+        return Collections.unmodifiableCollection(clips.values());
+    }
+
+    /**
+     * Turn on the PCM cache for sound effects: every clip no longer than
+     * maxSeconds is decoded now, once, into 16-bit PCM so playing it later
+     * is only a copy to the line. The cache never holds more than
+     * budgetBytes: clips that no longer fit are not decoded now. When it
+     * is full the least recently played clips are evicted, and decoded
+     * again after the next time they are played. A clip bigger than the
+     * whole budget is always played from its ogg data.
+     */
+    public void cachePcm(double maxSeconds, long budgetBytes) {
+        maxCachedSeconds = maxSeconds;
+        pcmCache = new PcmCache(budgetBytes);
+        Voice voice = new Voice();
+        for (SoundClip c : clips.values()) {
+            // the size is known without decoding; one that does not fit
+            // would only evict a clip decoded a moment ago
+            if (isCacheable(c, pcmCache) && pcmCache.getUsed() + pcmBytes(c) <= budgetBytes) {
+                byte[] p = decode(voice, c);
+                if (p != null) {
+                    pcmCache.put(c.getName(), p);
+                }
+            }
+        }
+    }
+
+    public PcmCache getPcmCache() {
+        return pcmCache;
+    }
+
+    /*
+     * Short enough for the cache, and no bigger than the whole of it
+     */
+    private boolean isCacheable(SoundClip c, PcmCache cache) {
+        return cache != null && c.getDuration() <= maxCachedSeconds
+                && pcmBytes(c) <= cache.getBudget();
+    }
+
+    private static long pcmBytes(SoundClip c) {
+        return c.getGranules() * 2 * c.getChannels();
+    }
+
+    /**
+     * Get the decoded PCM for a sound effect. A clip that was evicted is
+     * not decoded here, where it would hold up the clip being started:
+     * the caller plays it from the ogg data this time, and a job on the
+     * PlaybackScheduler decodes it back into the cache for the next.
+     *
+     * @return interleaved little-endian 16-bit samples, or null if the clip
+     * is not in the cache
+     */
+    byte[] getPcm(SoundClip c) {
+        PcmCache cache = pcmCache;
+        if (!isCacheable(c, cache)) {
+            return null;
+        }
+        byte[] p = cache.get(c.getName());
+        if (p == null && refilling.add(c.getName())) {
+            // a clip that changes format, or that the cache refuses, stays
+            // in refilling: there is no use decoding it again
+            PlaybackScheduler.getShared().submit(job -> {
+                byte[] d = decode(new Voice(), c);
+                if (d != null && cache.put(c.getName(), d)) {
+                    refilling.remove(c.getName());
+                }
+            });
+        }
+        return p;
+    }
+
+    /**
+     * Run a whole clip through a voice into memory
+     *
+     * @return null if a later link of a chained clip changes the format,
+     * which cached samples cannot
+     */
+    private static byte[] decode(Voice voice, SoundClip c) {
+        voice.open(c);
+        byte[] pcm = new byte[(int) c.getGranules() * 2 * c.getChannels()];
+        int length = 0, n;
+        while (true) {
+            if (length == pcm.length) {
+                pcm = Arrays.copyOf(pcm, Math.max(pcm.length * 2, 4096));
+            }
+            if ((n = voice.read(pcm, length, pcm.length - length)) < 0) {
+                break;
+            }
+            if (n == 0) {
+                return null;
+            }
+            length += n;
+        }
+        return length == pcm.length ? pcm : Arrays.copyOf(pcm, length);
+    }
+
+    /**
+     * Stop every channel and end the player threads
+     */
+    public synchronized void close() {
+        if (engine != null) {
+            engine.shutdown();
+            engine = null;
+        }
     }
 
     /**
@@ -136,11 +302,12 @@ public class LoadSounds implements Runnable {
                 return pathname.endsWith(".ogg");
             }
         });
+        Arrays.sort(files); // same directory, same database
         int totalSize = 0;
         for (File f : files) {
             totalSize += f.length();
         }
-        sounds = new byte[totalSize];
+        sounds = ByteBuffer.allocate(totalSize);
         int offset = 0;
         for (int i = 0; i < files.length; offset += files[i].length(), i++) {
             try {
@@ -152,435 +319,233 @@ public class LoadSounds implements Runnable {
         }
     }
 
-    // Save the big block of sounds to the database file
-    public void save() throws Exception {
-        FileOutputStream fos = new FileOutputStream(audioDBName);
-        //TODO: write out offsets into this file of each separate audio clip
-        //TODO: write out the name of each file
-        //TODO: do this in a way that is not serializable since that is not portable and it's deprecated
-
-        fos.write(sounds);
-        fos.close();
-    }
-
     /**
-     * Load a single file into RAM in the sounds array
+     * Save the big block of sounds to the database file, preceded by the
+     * name, offset, length and format of each clip so fastLoad() does not
+     * have to look at the ogg data at all.
      */
-    private void load(File f, int offset) throws Exception {
-        long size = f.length();
-        FileInputStream fis = new FileInputStream(f);
-        /*
-             * Verify the header, we try to inialize the sound system.
-         */
-        if (readHeader()) {
-            if (initializeSound()) {
-                readBody();
+    public void save() throws IOException {
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(table)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(clips.size());
+            int payload = 0; // clips are written packed, in table order
+            for (SoundClip c : clips.values()) {
+                out.writeUTF(c.getName());
+                out.writeInt(payload);
+                out.writeInt(c.getLength());
+                out.writeInt(c.getChannels());
+                out.writeInt(c.getRate());
+                out.writeLong(c.getGranules());
+                payload += c.getLength();
+            }
+        }
+        try (FileChannel fc = FileChannel.open(Paths.get(audioDBName), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(fc, ByteBuffer.wrap(table.toByteArray()));
+            for (SoundClip c : clips.values()) {
+                writeFully(fc, c.getData());
             }
         }
     }
 
-    public void run() {
+    private static void writeFully(FileChannel fc, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            fc.write(b);
+        }
     }
 
     /**
-     * Initializes JOrbis. 1. Initialize the <code>SyncState</code> object. 2.
-     * Prepare the <code>SyncState</code> buffer. 3. initialize the buffer,
-     * taking the data in <code>SyncState</code>.
+     * Load a single file into RAM in the sounds array and record its
+     * format under the file name without .ogg
      */
-    //TODO: Look this up, hopefully we do this just once, not once per music play
-    private void initializeJOrbis() {
-        //	debugOutput("Initializing JOrbis.");
-        joggSyncState.init();		          // Initialize SyncState
-        joggSyncState.buffer(bufferSize); // Prepare SyncState internal buffer
-        buffer = joggSyncState.data; // fill the buffer from SyncState's internal buffer.
-        //		debugOutput("Done initializing JOrbis.");
+    private void load(File f, int offset) throws Exception {
+        int size = (int) f.length();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            in.readFully(sounds.array(), offset, size);
+        }
+        String name = f.getName();
+        name = name.substring(0, name.length() - ".ogg".length());
+
+        Info info = loader.readHeader(ByteBuffer.wrap(sounds.array(), offset, size).slice(), name, true);
+        add(new SoundClip(name, offset, size, info.channels,
+                info.rate, granules(offset, size)));
     }
 
     /**
-     * This method reads the header of the stream, which consists of three
-     * packets.
-     *
-     * @return true if the header was successfully read, false otherwise
+     * The granule position of the last page of a stream is its number of
+     * samples. A chained clip is several streams one after another, so
+     * walk the page headers from the start, adding up the last position of
+     * each vorbis stream; pages of other streams multiplexed with them do
+     * not count. If the pages stop making sense, the search for the last
+     * page header is made backwards from the end instead.
      */
-    private boolean readHeader() {
-        //TODO: it's nice to have debugoutput, but ludicrous to put it in this class.
-        //TODO: if we need one, put it in a utility class so it is shared.
-        //debugOutput("Starting to read the header.");
-
-        boolean needMoreData = true;
-
-        /*
-		 * Start by defining packet = 1 and increment that value whenever 
-		 * a packet is successfully read, total should be 3
-         */
-        int packet = 1;
-        int cursor = 0;
-        int index = 0;
-        int remaining = sounds.length; // TODO: this needs to be just one sample!
-        
-        //TODO: look at this ridiculous code with the switch statements.  What a mess
-        // Just get it working with this before we do surgery and streamline
-        while (needMoreData) {	// Read from the InputStream.
-            int count = remaining > bufferSize ? bufferSize : remaining;
-            System.arraycopy(sounds, cursor, buffer, index, bufferSize);
-            //TODO: instead of copying from the array, use the array directly, but
-            // only if ogg code does not change the buffer.  We must be able to play it again
-            cursor += count;
-            joggSyncState.wrote(count); // tell SyncState how many bytes read
-
-            /*
-             * Read the first three packets. For the first packet, we
-             * need to initialize the StreamState object and a couple of other
-             * things. For packet two and three, the procedure is the same: we
-             * take out a page, and then we take out the packet.
-             */
-            switch (packet) {
-                case 1: {	// The first packet.  TODO: Terrible style. can this be fixed?
-                    switch (joggSyncState.pageout(joggPage)) {	// take out a page.
-                        case -1: { // If there is a hole in the data, exit
-                            throw new RuntimeException("hole in packet #1");
-                        }
-                        case 0: {	// If more data needed, break to get it.
-                            break;
-                        }
-
-                       /*
-                        * Successfully read packet #1, now initialize and reset
-                        * StreamState, and initialize the Info and Comment
-                        * objects. Afterwards check that the page does not
-                        * contain any errors, that the packet doesn't
-                        * contain any errors and that it's Vorbis data.
-                        */
-                        case 1: {
-                            // Initializes and resets StreamState.
-                            joggStreamState.init(joggPage.serialno());
-                            joggStreamState.reset();
-
-                            jorbisInfo.init();	 // Initializes the Info and Comment objects.
-                            jorbisComment.init();
-
-                            // Check the page (serial number and stuff).
-                            if (joggStreamState.pagein(joggPage) == -1) {
-                                throw new RuntimeException("Error reading header page #1");
-                            }
-
-                            /*
-					 * Try to extract a packet. All other return values
-					 * than "1" indicates there's something wrong.
-                             */
-                            if (joggStreamState.packetout(joggPacket) != 1) {
-                                throw new RuntimeException("Error reading header packet #1");
-                            }
-
-                            /*
-					 * We give the packet to the Info object, so that it
-					 * can extract the Comment-related information,
-					 * among other things. If this fails, it's not
-					 * Vorbis data.
-                             */
-                            if (jorbisInfo.synthesis_headerin(jorbisComment, joggPacket) < 0) {
-                                throw new RuntimeException("packet #1 is not vorbis data");
-                            }
-
-                            // We're done here, let's increment "packet".
-                            packet++;
-                            break;
-                        }
-                    }
-
-                    if (packet == 1) {
-                        break;
-                    }
-                }
-
-                // The code for the second and third packets follow.
-                case 2:
-                case 3: {
-                    switch (joggSyncState.pageout(joggPage)) { // get a new page again
-                        // If there is a hole in the data, we must exit.
-                        case -1: {
-                            throw new RuntimeException("hole in packet #" + packet);
-                        }
-
-                        // If we need more data, we break to get it.
-                        case 0: {
-                            break;
-                        }
-
-                        case 1: { // extract a packet and give to info and comment objects
-                            // Share the page with the StreamState object.
-                            joggStreamState.pagein(joggPage);
-
-                            /*
-					 * Just like the switch(...packetout...) lines
-					 * above.
-                             */
-                            switch (joggStreamState.packetout(joggPacket)) {
-                                case -1: { // If there is a hole in the data, we must exit.
-                                    throw new RuntimeException("hole in packet #1");
-                                }
-
-                                case 0: {	// break to get more data
-                                    break;
-                                }
-
-                                // We got a packet, let's process it.
-                                case 1: { // give packet to info and comment objects
-                                    jorbisInfo.synthesis_headerin(jorbisComment, joggPacket);
-                                    packet++;									// Increment packet.
-                                    if (packet == 4) {//end TODO: This logic SUCKS
-                                        needMoreData = false;
-                                    }
-
-                                    break;
-                                }
-                            }
-
-                            break;
-                        }
-                    }
-
-                    break;
-                }
+    private long granules(int start, int length) {
+        byte[] sounds = this.sounds.array(); // only used while loading a directory
+        Page joggPage = new Page();
+        joggPage.header_base = sounds;
+        long total = 0, last = 0;
+        int serial = 0;
+        boolean ended = true; // the stream being counted
+        int end = start + length;
+        for (int p = start; p < end; ) {
+            if (p + 27 > end || !isPage(sounds, p) || p + 27 + (sounds[p + 26] & 0xff) > end) {
+                return lastGranule(start, length);
             }
-
-            // Get the new index and an updated buffer.
-            index = joggSyncState.buffer(bufferSize);
-            buffer = joggSyncState.data;
-
-            /*
-			 * If we need more data but can't get it, the stream doesn't contain
-			 * enough information.
-             */
-            if (count == 0 && needMoreData) {
-                throw new RuntimeException("Missing header data");
+            int segments = sounds[p + 26] & 0xff, body = p + 27 + segments, size = 0;
+            for (int i = 0; i < segments; i++) {
+                size += sounds[p + 27 + i] & 0xff;
+            }
+            joggPage.header = p;
+            if (ended && joggPage.bos() != 0 && isVorbis(sounds, body, end)) {
+                total += last;
+                last = 0;
+                serial = joggPage.serialno();
+                ended = false;
+            } else if (!ended && joggPage.serialno() == serial) {
+                if (joggPage.granulepos() != -1) {
+                    last = joggPage.granulepos();
+                }
+                ended = joggPage.eos() != 0;
             }
+            p = body + size;
         }
+        return total + last;
+    }
 
-//        debugOutput("Finished reading the header.");
+    private static boolean isPage(byte[] b, int p) {
+        return b[p] == 'O' && b[p + 1] == 'g' && b[p + 2] == 'g' && b[p + 3] == 'S' && b[p + 4] == 0;
+    }
 
-        return true;
+    /*
+     * Is the packet at p a vorbis identification header?
+     */
+    private static boolean isVorbis(byte[] b, int p, int end) {
+        return p + 7 <= end && b[p] == 1 && b[p + 1] == 'v' && b[p + 2] == 'o' && b[p + 3] == 'r'
+                && b[p + 4] == 'b' && b[p + 5] == 'i' && b[p + 6] == 's';
     }
 
     /**
-     * This method starts the sound system. It starts with initializing the
-     * <code>DspState</code> object, after which it sets up the
-     * <code>Block</code> object. Last but not least, it opens a line to the
-     * source data line.
-     *
-     * @return true if the sound system was successfully started, false
-     * otherwise
+     * The granule position of the last page is the number of samples
+     * in the clip. Search backwards from the end for the last page header.
      */
-    private boolean initializeSound() throws Exception {
-        // This buffer is used by the decoding method.
-        convertedBufferSize = bufferSize * 2;
-        convertedBuffer = new byte[convertedBufferSize];
-
-        // Initializes the DSP synthesis.
-        jorbisDspState.synthesis_init(jorbisInfo);
-
-        // Make the Block object aware of the DSP.
-        jorbisBlock.init(jorbisDspState);
-
-        // Wee need to know the channels and rate.
-        int channels = jorbisInfo.channels;
-        int rate = jorbisInfo.rate;
-
-        // Creates an AudioFormat object and a DataLine.Info object.
-        AudioFormat audioFormat = new AudioFormat((float)rate, 16, channels, 
-                true, false);
-        DataLine.Info datalineInfo = new DataLine.Info(SourceDataLine.class,
-                audioFormat, AudioSystem.NOT_SPECIFIED);
-
-        // Check if the line is supported.
-        if (!AudioSystem.isLineSupported(datalineInfo)) {
-            throw new RuntimeException("Audio output line is not supported.");
+    private long lastGranule(int start, int length) {
+        byte[] sounds = this.sounds.array(); // only used while loading a directory
+        Page joggPage = new Page();
+        for (int p = start + length - 27; p >= start; p--) {
+            if (isPage(sounds, p)) {
+                joggPage.header_base = sounds;
+                joggPage.header = p;
+                long granule = joggPage.granulepos();
+                if (granule != -1) {
+                    return granule;
+                }
+            }
         }
+        return 0;
+    }
 
-        /*
-         * Try to open a line with the specified format, start source data line
-         */
-        outputLine = (SourceDataLine) AudioSystem.getLine(datalineInfo);
-        outputLine.open(audioFormat);
-        outputLine.start();
-
-        /*
-		 * Create the PCM variables. The index is an array with the same
-		 * length as the number of audio channels.
-         */
-        pcmInfo = new float[1][][];
-        pcmIndex = new int[jorbisInfo.channels];
-
-        //debugOutput("Done initializing the sound system.");
-
-        return true;
+    /**
+     * Queue a clip on one of the channels SOUNDEFFECT, MUSIC or BACKGROUND.
+     * Sound effects play at the same time as each other, up to the number
+     * of effect voices; music and background clips play one after another.
+     */
+    public void play(int whichThread, String sound) {
+        play(whichThread, sound, 1, 0);
     }
 
     /**
-     * This method reads the entire stream body. Whenever it extracts a packet,
-     * it will decode it by calling <code>decodeCurrentPacket()</code>.
+     * Queue a clip at a volume and position
+     *
+     * @param gain 1 plays the clip as recorded
+     * @param pan -1 is left only, 0 is center, 1 is right only
      */
-    private void readBody() {
-        //debugOutput("Reading the body.");
-        /*
-	 * Variable used in loops below, like in readHeader(). While we need
-	 * more data, we will continue to read from the InputStream.
-         */
-        boolean needMoreData = true;
-
-        int remaining = bufferSize;
-        int count = remaining >= bufferSize ? bufferSize : remaining;
-        do {
-            switch (joggSyncState.pageout(joggPage)) {
-                // If there is a hole in the data, we just proceed.
-                case -1: {
-                    //debugOutput("There is a hole in the data. We proceed.");
-                }
+    public void play(int whichThread, String sound, float gain, float pan) {
+        getEngine().play(whichThread, clip(sound), gain, pan);
+    }
 
-                // If we need more data, we break to get it.
-                case 0: {
-                    break;
-                }
+    /**
+     * Keep voices ready to trigger a sound the moment it is needed, with
+     * its headers parsed and its first block decoded
+     */
+    public void preload(String sound, int voices) {
+        getEngine().preload(clip(sound), voices);
+    }
 
-                // If we have successfully checked out a page, we continue.
-                case 1: {
-                    // Give the page to the StreamState object.
-                    joggStreamState.pagein(joggPage);
-
-                    // If granulepos() returns "0", we don't need more data.
-                    if (joggPage.granulepos() == 0) {
-                        needMoreData = false;
-                        break;
-                    }
-
-                    // Here is where we process the packets.
-                    processPackets:
-                    while (true) {
-                        switch (joggStreamState.packetout(joggPacket)) {
-                            // Is it a hole in the data?
-                            case -1: {
-                           //     debugOutput("error: hole in data, continuing");
-                            }
-
-                            // If we need more data, we break to get it.
-                            case 0: {
-                                break processPackets;
-                            }
-
-                            /*
-			 * If we have the data we need, we decode the
-			 * packet.
-                             */
-                            case 1: {
-                                decodeCurrentPacket();
-                            }
-                        }
-                    }
-
-                    /*
-                    * If the page is the end-of-stream, we don't need more
-                     * data.
-                     */
-                    if (joggPage.eos() != 0) {
-                        needMoreData = false;
-                    }
-                }
-            }
+    /**
+     * Start a sound effect at once, without going through a queue.
+     * Preloaded sounds start fastest.
+     */
+    public void trigger(String sound) {
+        trigger(sound, 1, 0);
+    }
 
-            // TODO: This code is just dreadful.
-            if (needMoreData) {
-                // We get the new index and an updated buffer.
-                int index = joggSyncState.buffer(bufferSize);
-                buffer = joggSyncState.data;
-                //TODO: compute remaining correctly
-                count = remaining >= bufferSize ? bufferSize : remaining;
-                System.arraycopy(sounds, cursor, buffer, index, count);
-                joggSyncState.wrote(count);// Let SyncState know how many bytes read.
-            }
-        } while (count > 0);
-        //debugOutput("Done reading the body.");
+    /**
+     * @param gain 1 plays the clip as recorded
+     * @param pan -1 is left only, 0 is center, 1 is right only
+     */
+    public void trigger(String sound, float gain, float pan) {
+        getEngine().trigger(clip(sound), gain, pan);
     }
 
     /**
-     * Decodes the current packet and sends it to the audio output line.
+     * @return how long sounds take from play or trigger to their first
+     * sample reaching the output
      */
-    private void decodeCurrentPacket() {
-        int samples;
+    public LatencyStats getLatency() {
+        return getEngine().getMixer().getLatency();
+    }
 
-        // Check that the packet is a audio data packet etc.
-        if (jorbisBlock.synthesis(joggPacket) == 0) {
-            // Give the block to the DspState object.
-            jorbisDspState.synthesis_blockin(jorbisBlock);
+    /**
+     * Size the output line: it holds bufferFrames and is written
+     * chunkFrames at a time. A small buffer plays sooner after play() or
+     * trigger() but runs dry more easily; getLineStats() tells how it is
+     * doing. 0 keeps the default. Call it before anything is played.
+     *
+     * @throws IllegalStateException if the line is already open
+     */
+    public synchronized void setOutputBuffer(int bufferFrames, int chunkFrames) {
+        if (engine != null) {
+            throw new IllegalStateException("the output line is already open");
         }
+        this.bufferFrames = bufferFrames;
+        this.chunkFrames = chunkFrames;
+    }
 
-        // Determine the number of samples to process.
-        int range;
-
-        /*
-	 * Get the PCM information and count the samples. And while these
-	 * samples are more than zero...
-         */
-        while ((samples = jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex)) > 0) {
-            // We need to know for how many samples we are going to process.
-            range = samples < convertedBufferSize ? samples : convertedBufferSize;
-
-            // For each channel...
-            for (int i = 0; i < jorbisInfo.channels; i++) {
-                int sampleIndex = i * 2;
-                // For every sample in our range...
-                for (int j = 0; j < range; j++) {
-                    /*
-		 * Get the PCM value for the channel at the correct
-		 * position.
-                     */
-                    int value = (int) (pcmInfo[0][i][pcmIndex[i] + j] * 32767);
-
-                    /*
-		 * clamp the value to the range [-32767, +32767]
-                     */
-                    if (value > 32767) {
-                        value = 32767;
-                    }
-                    if (value < -32768) {
-                        value = -32768;
-                    }
-
-                    /*
-		 * If the value is less than zero, OR it with
-		 * 32768 (which is 1000000000000000 = 10^15).
-                     */
-                    if (value < 0) {
-                        value = value | 32768;
-                    }
-
-                    /*
-		 * Split the integer into two, low-byte, high-byte
-                     */
-                    convertedBuffer[sampleIndex] = (byte) (value);
-                    convertedBuffer[sampleIndex + 1] = (byte) (value >>> 8);
-
-                    /*
-		 * Move the sample index forward by two (since that's how
-		 * many values we get at once) times the number of channels.
-                     */
-                    sampleIndex += 2 * (jorbisInfo.channels);
-                }
-            }
-
-            // Write the buffer to the audio output line.
-            outputLine.write(convertedBuffer, 0, 2 * jorbisInfo.channels * range);
-
-            // Update the DspState object.
-            jorbisDspState.synthesis_read(range);
-        }
+    /**
+     * @return underruns and how full the output line has been
+     */
+    public LineStats getLineStats() {
+        return getEngine().getMixer().getLineStats();
     }
 
-    public void play(int whichThread, String sound) {
+    private SoundClip clip(String sound) {
+        SoundClip c = clips.get(sound);
+        if (c == null) {
+            throw new IllegalArgumentException("no sound named " + sound);
+        }
+        return c;
     }
 
     /*
-     * stop the playing of music in a single thread
+     * stop the playing of music in a single thread, and forget anything
+     * still queued on it
      */
     public void stop(int whichThread) {
+        VoiceEngine e;
+        synchronized (this) {
+            e = engine;
+        }
+        if (e != null) {
+            e.stop(whichThread);
+        }
+    }
+
+    private synchronized VoiceEngine getEngine() {
+        if (engine == null) {
+            engine = new VoiceEngine(this, bufferFrames, chunkFrames);
+        }
+        return engine;
     }
 }
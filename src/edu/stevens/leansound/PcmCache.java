@@ -0,0 +1,81 @@
+package edu.stevens.leansound;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author Dov Kruger
+ *
+ * Decoded sound clips kept as interleaved little-endian 16-bit PCM, so a
+ * short effect fired over and over is decoded once instead of running the
+ * whole vorbis pipeline every time it plays.
+ * The cache holds at most budget bytes; when a new clip does not fit, the
+ * clips that have gone longest without being played are thrown out.
+ */
+public class PcmCache {
+    private final long budget;
+    private long used;
+    private int hits, misses, evictions;
+    // access order, so iteration starts at the least recently played clip
+    private final LinkedHashMap<String, byte[]> pcm = new LinkedHashMap<>(64, 0.75f, true);
+
+    public PcmCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the decoded clip, or null if it is not cached
+     */
+    public synchronized byte[] get(String name) {
+        byte[] p = pcm.get(name);
+        if (p == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return p;
+    }
+
+    /**
+     * Add a decoded clip, evicting least recently used clips to make room.
+     *
+     * @return false if the clip is bigger than the whole budget
+     */
+    public synchronized boolean put(String name, byte[] p) {
+        if (p.length > budget) {
+            return false;
+        }
+        byte[] old = pcm.remove(name);
+        if (old != null) {
+            used -= old.length;
+        }
+        for (Iterator<Map.Entry<String, byte[]>> i = pcm.entrySet().iterator();
+                used + p.length > budget && i.hasNext();) {
+            used -= i.next().getValue().length;
+            i.remove();
+            evictions++;
+        }
+        pcm.put(name, p);
+        used += p.length;
+        return true;
+    }
+
+    public synchronized void clear() {
+        pcm.clear();
+        used = 0;
+    }
+
+    public long getBudget() { return budget; }
+    public synchronized long getUsed() { return used; }
+    public synchronized int size() { return pcm.size(); }
+    public synchronized int getHits() { return hits; }
+    public synchronized int getMisses() { return misses; }
+    public synchronized int getEvictions() { return evictions; }
+
+    @Override
+    public synchronized String toString() {
+        return "PcmCache[" + pcm.size() + " clips, " + used + "/" + budget + " bytes, "
+                + hits + " hits, " + misses + " misses, " + evictions + " evictions]";
+    }
+}
@@ -0,0 +1,295 @@
+package edu.stevens.leansound;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Dov Kruger
+ *
+ * Runs playback and decode jobs. Each job gets a virtual thread when the
+ * JVM has them (Java 21 on; they are looked up by reflection so this still
+ * builds for older targets), so thousands of short clips can play at once.
+ * Otherwise jobs run on a pool of at most getMaxThreads() platform threads
+ * with small stacks, kept a while for reuse by the next job; more jobs
+ * than that wait in order for one to end, holding no thread until then.
+ * A paused job keeps its thread, so on the pool it holds up those behind.
+ * Every job comes with a Control. Pause, resume and stop are one atomic
+ * update of its state; a paused job parks its thread and resume unparks
+ * it, so nothing polls and nothing takes a lock.
+ * All threads are daemons, like virtual threads always are: whoever needs
+ * a job finished before the program exits waits for it with
+ * Control.await().
+ */
+public class PlaybackScheduler {
+    private static final PlaybackScheduler shared = new PlaybackScheduler();
+
+    private static final int STACK_SIZE = 256 * 1024; // for platform threads
+
+    /**
+     * The most jobs run at once when there are no virtual threads
+     */
+    public static final int MAX_THREADS = 64;
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int maxThreads;
+    private ScheduledExecutorService timer; // made when first needed
+
+    /**
+     * Something to play or decode. It should call c.proceed() between
+     * blocks, and end when that returns false.
+     */
+    public interface Job {
+        void run(Control c);
+    }
+
+    /**
+     * The running state of one job, and the controls another thread uses
+     * to change it.
+     */
+    public static class Control {
+        static final int RUNNING = 0, PAUSED = 1, STOPPED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private volatile Thread parked; // the job's thread while it is paused
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * @return false if the job was not running
+         */
+        public boolean pause() {
+            return state.compareAndSet(RUNNING, PAUSED);
+        }
+
+        /**
+         * @return false if the job was not paused
+         */
+        public boolean resume() {
+            if (!state.compareAndSet(PAUSED, RUNNING)) {
+                return false;
+            }
+            LockSupport.unpark(parked);
+            return true;
+        }
+
+        /**
+         * Ask the job to end at its next block. A paused job is woken to do
+         * so.
+         */
+        public void stop() {
+            state.set(STOPPED);
+            LockSupport.unpark(parked);
+        }
+
+        public boolean isPaused() {
+            return state.get() == PAUSED;
+        }
+
+        public boolean isStopped() {
+            return state.get() == STOPPED;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Called by the job between blocks: returns at once while the job
+         * is running, parks the thread while it is paused.
+         *
+         * @return false if the job has been stopped and should end
+         */
+        public boolean proceed() {
+            int s;
+            while ((s = state.get()) == PAUSED) {
+                // publish the thread before looking again, so a resume
+                // either sees it or has already changed the state
+                parked = Thread.currentThread();
+                if (state.get() == PAUSED) {
+                    LockSupport.park(this);
+                }
+                parked = null;
+            }
+            return s == RUNNING;
+        }
+
+        /**
+         * Called by the job to wait about nanos between blocks, as proceed()
+         * does not. A stop wakes the thread at once; a pause holds it until
+         * resumed, and the rest of the wait comes after.
+         *
+         * @return false if the job has been stopped and should end
+         */
+        public boolean delay(long nanos) {
+            long left = nanos;
+            while (left > 0 && proceed()) {
+                long start = System.nanoTime();
+                parked = Thread.currentThread();
+                if (state.get() == RUNNING) {
+                    LockSupport.parkNanos(this, left);
+                }
+                parked = null;
+                left -= System.nanoTime() - start;
+            }
+            return proceed();
+        }
+
+        /**
+         * Block until the job has ended, played out or stopped
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        /**
+         * Mark the job ended; the scheduler does this when the job returns
+         */
+        void finish() {
+            done.countDown();
+        }
+    }
+
+    public PlaybackScheduler() {
+        this(MAX_THREADS);
+    }
+
+    /**
+     * A scheduler that, without virtual threads, runs at most maxThreads
+     * jobs at once
+     */
+    public PlaybackScheduler(int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be at least 1, not " + maxThreads);
+        }
+        this.maxThreads = maxThreads;
+        ExecutorService e = virtualThreadExecutor();
+        virtual = e != null;
+        executor = virtual ? e : platformThreadExecutor("LeanSound-job-", maxThreads);
+    }
+
+    /**
+     * @return the scheduler the players share
+     */
+    public static PlaybackScheduler getShared() {
+        return shared;
+    }
+
+    /**
+     * @return true if jobs run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return the most platform threads running jobs at once; virtual
+     * threads are not limited
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Start a job now
+     *
+     * @return the job's controls
+     */
+    public Control submit(Job job) {
+        Control c = new Control();
+        start(job, c);
+        return c;
+    }
+
+    /**
+     * Start a job after a delay. Until then it holds no thread; stopping
+     * it in the meantime means it never runs.
+     *
+     * @return the job's controls
+     */
+    public Control schedule(Job job, long delay, TimeUnit unit) {
+        Control c = new Control();
+        timer().schedule(() -> start(job, c), delay, unit);
+        return c;
+    }
+
+    /**
+     * Stop taking jobs. The ones already started run to their end.
+     */
+    public synchronized void shutdown() {
+        if (timer != null) {
+            timer.shutdown();
+        }
+        executor.shutdown();
+    }
+
+    private void start(Job job, Control c) {
+        if (c.isStopped()) { // stopped before it started
+            c.finish();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    job.run(c);
+                } catch (RuntimeException e) {
+                    System.err.println("Playback job failed");
+                    e.printStackTrace();
+                } finally {
+                    c.finish();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            c.finish(); // shut down
+            throw e;
+        }
+    }
+
+    private synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(daemons("LeanSound-timer-"));
+        }
+        return timer;
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor(), if this JVM has it
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // before Java 21, or virtual threads are disabled
+        }
+    }
+
+    /*
+     * Up to max threads, each kept a little while after its job in case
+     * another comes along; jobs beyond that are queued
+     */
+    private static ExecutorService platformThreadExecutor(String name, int max) {
+        ThreadPoolExecutor e = new ThreadPoolExecutor(max, max, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemons(name));
+        e.allowCoreThreadTimeOut(true);
+        return e;
+    }
+
+    private static ThreadFactory daemons(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(null, r, name + count.incrementAndGet(), STACK_SIZE);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
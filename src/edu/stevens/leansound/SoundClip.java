@@ -0,0 +1,61 @@
+package edu.stevens.leansound;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author Dov Kruger
+ *
+ * One entry in the table of contents of a sound library.
+ * The compressed ogg bytes of the clip live in the big block owned by
+ * LoadSounds; this object only says where they are and what they contain,
+ * so a player can pick a clip without parsing any ogg headers.
+ * The bytes themselves are reached through a slice of the block, which is
+ * a mapping of the database file when it was opened with fastLoad.
+ */
+public class SoundClip {
+    private final String name;
+    int offset;         // position of the first byte of the clip in the block
+    private final int length; // number of compressed bytes
+    private final int channels;
+    private final int rate;
+    private final long granules; // total samples per channel (last granulepos)
+    ByteBuffer data;    // read-only view of exactly this clip's bytes
+    boolean trusted;    // from our own database, so page checksums are skipped
+
+    SoundClip(String name, int offset, int length, int channels, int rate, long granules) {
+        this.name = name;
+        this.offset = offset;
+        this.length = length;
+        this.channels = channels;
+        this.rate = rate;
+        this.granules = granules;
+    }
+
+    public String getName() { return name; }
+    public int getOffset() { return offset; }
+    public int getLength() { return length; }
+    public int getChannels() { return channels; }
+    public int getRate() { return rate; }
+    public long getGranules() { return granules; }
+
+    /**
+     * @return a fresh view of the compressed bytes, positioned at the start
+     * of the clip. Each caller gets its own position, the bytes are shared.
+     */
+    public ByteBuffer getData() {
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the playing time of the clip in seconds
+     */
+    public double getDuration() {
+        return rate == 0 ? 0 : (double) granules / rate;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + offset + "+" + length + ", " + channels + "ch, "
+                + rate + "Hz, " + granules + " samples]";
+    }
+}
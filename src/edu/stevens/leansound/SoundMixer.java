@@ -0,0 +1,361 @@
+package edu.stevens.leansound;
+
+import com.jcraft.jorbis.Pcm16;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import javax.sound.sampled.*;
+
+/**
+ * @author Dov Kruger
+ *
+ * Plays any number of voices through one line. Every block, each active
+ * voice is pulled for samples, scaled by its gain and pan and added into a
+ * float buffer; the sum is converted to 16 bits once, by Pcm16, and
+ * written to the one shared SourceDataLine. Mixing costs one pass per
+ * voice, and nothing ever opens a second line.
+ * The output is always stereo at the rate given to the constructor.
+ * Voices at another rate are resampled by linear interpolation, and mono
+ * voices are spread over both sides by their pan.
+ * Every track is timed from the call that started it to its first sample
+ * reaching the line; see getLatency().
+ * The line's buffer and the blocks written to it can be sized with
+ * start(bufferFrames, chunkFrames): smaller means less latency and more
+ * risk of the line running dry, which getLineStats() counts.
+ */
+public class SoundMixer implements Runnable {
+    public static final int BLOCK_FRAMES = 512;
+    public static final int BUFFER_FRAMES = 4 * BLOCK_FRAMES; // four blocks queued ahead
+
+    private final float rate;
+    private final float[] mix = new float[2 * BLOCK_FRAMES];
+    private byte[] out; // one write to the line
+    private final ArrayList<Track> tracks = new ArrayList<>();
+    private Track[] active = new Track[0];
+
+    private SourceDataLine line;
+    private Thread thread;
+    private volatile boolean running;
+
+    private final LatencyStats latency = new LatencyStats();
+    private final LineStats lineStats = new LineStats();
+    private long queued; // nanoseconds of sound in the line ahead of the next block
+
+    /**
+     * A mixer for offline use: nothing is played, mix() produces the output
+     */
+    public SoundMixer(float rate) {
+        this.rate = rate;
+    }
+
+    public float getRate() { return rate; }
+
+    /**
+     * @return the time from starting each track to its first sample
+     * reaching the output
+     */
+    public LatencyStats getLatency() { return latency; }
+
+    /**
+     * @return the number of voices being mixed
+     */
+    public synchronized int getTrackCount() { return tracks.size(); }
+
+    /**
+     * @return underruns and how full the line has been
+     */
+    public LineStats getLineStats() { return lineStats; }
+
+    /**
+     * Open the shared line and start the thread that feeds it
+     */
+    public void start() throws LineUnavailableException {
+        start(BUFFER_FRAMES, BLOCK_FRAMES);
+    }
+
+    /**
+     * Open the shared line with a buffer of bufferFrames, and start the
+     * thread that feeds it chunkFrames at a time; 0 keeps the default for
+     * either. The sound system may round the buffer; getLineStats() tells
+     * what it was given.
+     */
+    public synchronized void start(int bufferFrames, int chunkFrames) throws LineUnavailableException {
+        bufferFrames = bufferFrames > 0 ? bufferFrames : BUFFER_FRAMES;
+        chunkFrames = chunkFrames > 0 ? chunkFrames : BLOCK_FRAMES;
+        if (bufferFrames < chunkFrames) {
+            throw new IllegalArgumentException("a buffer of " + bufferFrames
+                    + " frames cannot take writes of " + chunkFrames);
+        }
+        if (running) {
+            return;
+        }
+        AudioFormat format = new AudioFormat(rate, 16, 2, true, false);
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, format, AudioSystem.NOT_SPECIFIED);
+        if (!AudioSystem.isLineSupported(info)) {
+            throw new LineUnavailableException("Audio output line is not supported.");
+        }
+        line = (SourceDataLine) AudioSystem.getLine(info);
+        line.open(format, 4 * bufferFrames);
+        line.start();
+        lineStats.opened();
+        out = new byte[4 * chunkFrames];
+        running = true;
+        thread = new Thread(this, "LeanSound-mixer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop every voice and close the line
+     */
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            for (Track k : tracks) {
+                k.finish();
+            }
+            tracks.clear();
+            active = new Track[0];
+            notifyAll();
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (line != null) {
+            line.close();
+            line = null;
+        }
+    }
+
+    /**
+     * Start mixing an opened voice in. The mixer owns the voice until the
+     * track is done.
+     *
+     * @param gain 1 plays the voice as recorded
+     * @param pan -1 is left only, 0 is center, 1 is right only
+     */
+    public Track play(Voice voice, float gain, float pan) {
+        return play(voice, gain, pan, System.nanoTime(), null);
+    }
+
+    /**
+     * @param triggered the System.nanoTime() the latency is measured from
+     * @param onDone run by the mixer when the track ends, or null
+     */
+    synchronized Track play(Voice voice, float gain, float pan, long triggered, Runnable onDone) {
+        Track t = new Track(voice, gain, pan, triggered, onDone);
+        tracks.add(t);
+        active = tracks.toArray(new Track[tracks.size()]);
+        notifyAll();
+        return t;
+    }
+
+    private synchronized Track[] waitForTracks() throws InterruptedException {
+        while (running && tracks.isEmpty()) {
+            lineStats.idle();
+            wait(); // nothing to play, let the line run dry
+        }
+        return active;
+    }
+
+    private synchronized void remove(Track t) {
+        tracks.remove(t);
+        active = tracks.toArray(new Track[tracks.size()]);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Track[] a = waitForTracks();
+                if (!running) {
+                    break;
+                }
+                // what the line still has to play before this block
+                queued = (long) ((line.getBufferSize() - line.available()) / 4 * 1e9 / rate);
+                mix(out, out.length / 4, a);
+                lineStats.write(line, out, 0, out.length);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Mix the next frames of every active voice into out as 16-bit
+     * little-endian stereo, removing the voices that end.
+     */
+    public void mix(byte[] out, int frames) {
+        Track[] a;
+        synchronized (this) {
+            a = active;
+        }
+        queued = 0;
+        mix(out, frames, a);
+    }
+
+    private void mix(byte[] out, int frames, Track[] a) {
+        for (int done = 0; done < frames; done += BLOCK_FRAMES) {
+            int n = Math.min(BLOCK_FRAMES, frames - done);
+            Arrays.fill(mix, 0, 2 * n, 0f);
+            for (Track t : a) {
+                if (t.done.getCount() == 0) {
+                    continue;
+                }
+                if (t.stopped || !t.mixInto(mix, n)) {
+                    t.finish();
+                    remove(t);
+                } else if (!t.started) {
+                    t.started = true;
+                    latency.record(System.nanoTime() - t.triggered + queued
+                            + (long) (done * 1e9 / rate));
+                }
+            }
+            Pcm16.pack(mix, 0, 2 * n, out, 4 * done, false);
+        }
+    }
+
+    /**
+     * One voice being played, with the controls that can change while it
+     * plays.
+     */
+    public class Track {
+        private final Voice voice;
+        private int channels;
+        private double step; // source frames per output frame
+        private float[] src;
+        private int srcFrames;
+        private double position; // in src, in frames
+        private volatile float left, right;
+        private volatile boolean stopped;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final long triggered;
+        private boolean started; // the first samples have been mixed
+        private final Runnable onDone;
+
+        Track(Voice voice, float gain, float pan, long triggered, Runnable onDone) {
+            this.voice = voice;
+            this.triggered = triggered;
+            this.onDone = onDone;
+            format();
+            set(gain, pan);
+        }
+
+        /*
+         * Take the voice's format, when it starts and again when the next
+         * link of a chained clip changes it
+         */
+        private void format() {
+            int n = voice.getChannels() * (2 * BLOCK_FRAMES + 2);
+            if (src == null || src.length < n) {
+                src = new float[n];
+            }
+            if (voice.getChannels() != channels) { // the frame kept is in the old layout
+                srcFrames = 0;
+                position = 0;
+            }
+            channels = voice.getChannels();
+            step = voice.getRate() / (double) rate;
+        }
+
+        /**
+         * Change the volume and position; for a stereo voice the pan is a
+         * balance control.
+         */
+        public void set(float gain, float pan) {
+            left = gain * Math.min(1, 1 - pan);
+            right = gain * Math.min(1, 1 + pan);
+        }
+
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Block until the voice has played to the end or was stopped
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        private synchronized void finish() {
+            if (done.getCount() == 0) {
+                return;
+            }
+            done.countDown();
+            if (onDone != null) {
+                onDone.run();
+            }
+        }
+
+        /*
+         * Add the next frames of this voice to the stereo buffer
+         *
+         * @return false once the voice has run out
+         */
+        private boolean mixInto(float[] mix, int frames) {
+            float l = left, r = right;
+            for (int k = 0; k < 2 * frames; k += 2) {
+                int i = (int) position;
+                int next = channels; // from this frame to the one after it
+                while (i + 1 >= srcFrames) { // need the frame after this one
+                    boolean more = fill();
+                    i = (int) position;
+                    if (!more) {
+                        if (i >= srcFrames) {
+                            return false;
+                        }
+                        next = 0; // the last frame of the voice stands in for the next
+                        break;
+                    }
+                }
+                float f = (float) (position - i);
+                int p = i * channels;
+                if (channels == 1) {
+                    float s = src[p] + (src[p + next] - src[p]) * f;
+                    mix[k] += s * l;
+                    mix[k + 1] += s * r;
+                } else {
+                    mix[k] += (src[p] + (src[p + next] - src[p]) * f) * l;
+                    mix[k + 1] += (src[p + 1] + (src[p + 1 + next] - src[p + 1]) * f) * r;
+                }
+                position += step;
+                if (next == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /*
+         * Keep the frame being played and read more after it
+         */
+        private boolean fill() {
+            int keep = Math.min((int) position, srcFrames);
+            int remain = srcFrames - keep;
+            System.arraycopy(src, keep * channels, src, 0, remain * channels);
+            srcFrames = remain;
+            position -= keep;
+            int n = voice.read(src, srcFrames * channels, src.length / channels - srcFrames);
+            if (n < 0) {
+                return false;
+            }
+            if (n == 0) { // the format has changed
+                format();
+            }
+            srcFrames += n;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package edu.stevens.leansound;
+
+import com.jcraft.jogg.*;
+import com.jcraft.jorbis.*;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Dov Kruger
+ *
+ * One voice is everything needed to play one clip at a time: its own
+ * JOgg/JOrbis state and its own place in the clip, so any number of voices
+ * can decode the same library at the same time.
+ * A voice is pulled: read() decodes just enough packets to fill the
+ * caller's buffer with 16-bit little-endian PCM. A voice is reused for
+ * clip after clip; open() resets it.
+ * A clip may be a chained stream, one logical stream after another as
+ * Icecast relays send them, and may have other streams multiplexed with
+ * its vorbis one. The voice plays every vorbis link in turn and skips the
+ * rest. When the next link has the same headers as the last, only the
+ * DspState is restarted; the books and lookups already built are kept.
+ */
+public class Voice {
+    // a cached clip is played straight out of its decoded PCM
+    private byte[] pcm;
+    private int pcmPosition;
+
+    // The decoder pushes its samples into these
+    private final Pcm16.Packer packer = new Pcm16.Packer(false, null);
+    private final Interleaver interleaver = new Interleaver();
+
+    // Here are the four required JOgg objects...
+    private final Packet joggPacket = new Packet();
+    private final Page joggPage = new Page();
+    private final StreamState joggStreamState = new StreamState();
+    private final SyncState joggSyncState = new SyncState();
+
+    // ... followed by the four required JOrbis objects.
+    private final DspState jorbisDspState = new DspState();
+    private final Block jorbisBlock = new Block(jorbisDspState);
+    private Comment jorbisComment = new Comment();
+    private Info jorbisInfo = new Info();
+    // the headers of the next link of a chained stream are read into these
+    private Comment nextComment = new Comment();
+    private Info nextInfo = new Info();
+
+    private boolean lastPage; // the page holding the end of the link was read
+    private int serial;       // of the link being read
+    private int headers;      // header packets of the link read so far
+    private boolean decoding; // the DspState is set up for the headers read
+    private boolean formatChanged; // for the link about to be read
+    private int channels;
+    private int rate;
+
+    public Voice() {
+        joggSyncState.init();
+    }
+
+    /**
+     * Get ready to play a clip: parse its headers and start the decoder
+     */
+    public void open(SoundClip clip) {
+        readHeader(clip.data, clip.getName(), !clip.trusted);
+        initializeDecoder();
+    }
+
+    /**
+     * Get ready to play a clip that has already been decoded
+     */
+    public void open(byte[] decoded, int channels, int rate) {
+        joggSyncState.reset();
+        pcm = decoded;
+        pcmPosition = 0;
+        this.channels = channels;
+        this.rate = rate;
+    }
+
+    /**
+     * Decode the first block of the clip now, so the first read() only
+     * has to copy it out.
+     *
+     * @return false if the clip has no samples
+     */
+    public boolean preroll() {
+        return pcm != null || available() >= 0;
+    }
+
+    public int getChannels() { return channels; }
+    public int getRate() { return rate; }
+
+    /**
+     * Fill buffer with the next decoded samples of the clip.
+     * When the next link of a chained clip has a different format, nothing
+     * is read the first time it is reached: check getChannels() and
+     * getRate() again, then go on reading.
+     *
+     * @return the number of bytes written, always a whole number of frames,
+     * 0 if the format has just changed, or -1 at the end of the clip
+     * @throws IllegalArgumentException if len is less than one frame,
+     * 2 * getChannels() bytes, which could not hold a single sample of each
+     * channel
+     */
+    public int read(byte[] b, int off, int len) {
+        if (pcm != null) {
+            checkFrame(len);
+            int count = Math.min(len - len % (2 * channels), pcm.length - pcmPosition);
+            if (count <= 0) {
+                return -1;
+            }
+            System.arraycopy(pcm, pcmPosition, b, off, count);
+            pcmPosition += count;
+            return count;
+        }
+        if (available() < 0) {
+            return -1;
+        }
+        if (formatChanged) {
+            formatChanged = false;
+            return 0;
+        }
+        checkFrame(len);
+        jorbisDspState.synthesis_pcmout(packer.into(b, off, len));
+        return packer.position() - off;
+    }
+
+    /**
+     * Fill buffer with up to frames interleaved float samples in [-1, 1],
+     * for a mixer to sum with other voices.
+     *
+     * @return the number of frames written, 0 if the format has just
+     * changed as for read(byte[], int, int), or -1 at the end of the clip
+     */
+    public int read(float[] b, int off, int frames) {
+        if (pcm != null) {
+            int count = Math.min(frames, (pcm.length - pcmPosition) / (2 * channels));
+            if (count <= 0) {
+                return -1;
+            }
+            for (int i = 0, n = count * channels; i < n; i++, pcmPosition += 2) {
+                b[off + i] = (short) ((pcm[pcmPosition] & 0xff) | (pcm[pcmPosition + 1] << 8)) * (1 / 32768f);
+            }
+            return count;
+        }
+        if (available() < 0) {
+            return -1;
+        }
+        if (formatChanged) {
+            formatChanged = false;
+            return 0;
+        }
+        jorbisDspState.synthesis_pcmout(interleaver.into(b, off, frames, channels));
+        return (interleaver.position() - off) / channels;
+    }
+
+    /*
+     * Refuse a read too short for one frame, which would otherwise look
+     * like a change of format or the end of the clip
+     */
+    private void checkFrame(int len) {
+        if (len < 2 * channels) {
+            throw new IllegalArgumentException("cannot read " + len + " bytes: a frame of "
+                    + channels + " channels is " + 2 * channels);
+        }
+    }
+
+    /*
+     * Decode until the DspState has samples ready
+     *
+     * @return the number of samples per channel ready, or -1 at the end
+     */
+    private int available() {
+        int samples;
+        while ((samples = jorbisDspState.synthesis_pcmout(null, null)) == 0) {
+            if (!decodeNextPacket()) {
+                return -1;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * This method reads the header of a clip, which consists of three
+     * packets, leaving the stream ready to decode the body. The header is
+     * that of the first vorbis stream in the clip.
+     * SyncState reads the clip where it lies, on the heap or in a mapping,
+     * without copying it; the only copy made is of each page's body into
+     * the StreamState, which puts the packets together. Page checksums
+     * are only checked if verify is set.
+     *
+     * @return the stream format, valid until the next call
+     * @throws RuntimeException if the clip has no vorbis stream or is cut short
+     */
+    Info readHeader(ByteBuffer data, String name, boolean verify) {
+        pcm = null;
+        joggSyncState.wrap(data);
+        joggSyncState.setVerify(verify);
+        joggStreamState.reset();
+        lastPage = true; // take the first stream that begins
+        headers = 0;
+        decoding = false;
+        formatChanged = false;
+        while (headers < 3) {
+            switch (joggStreamState.packetout(joggPacket)) {
+                case -1: // If there is a hole in the data, exit
+                    throw new RuntimeException("hole in header packet #" + (headers + 1) + " of " + name);
+                case 1:
+                    header();
+                    continue;
+            }
+            if (!nextPage()) {
+                throw new RuntimeException((headers == 0 ? "No vorbis stream in " : "Missing header data in ") + name);
+            }
+        }
+        channels = jorbisInfo.channels;
+        rate = jorbisInfo.rate;
+        return jorbisInfo;
+    }
+
+    /**
+     * Set up the <code>DspState</code> and <code>Block</code> for the
+     * stream whose header was just read.
+     */
+    private void initializeDecoder() {
+        // Initializes the DSP synthesis.
+        jorbisDspState.synthesis_init(jorbisInfo);
+
+        // Make the Block object aware of the DSP.
+        jorbisBlock.init(jorbisDspState);
+        decoding = true;
+    }
+
+    /**
+     * Take in a header packet of the link being read. Until the decoder is
+     * running, headers go straight into jorbisInfo. Those of a later link
+     * go into nextInfo; once all three are in, the decoder moves over to
+     * it. If the link's setup is the one already loaded, its books are
+     * not even unpacked, and only the DspState is restarted.
+     * A stream that is not vorbis is skipped.
+     */
+    private void header() {
+        Info info = decoding ? nextInfo : jorbisInfo;
+        Comment comment = decoding ? nextComment : jorbisComment;
+        if (headers == 0) {
+            info.init();
+            comment.init();
+        }
+        if (headers == 2 && decoding && jorbisInfo.same_setup(nextInfo, joggPacket)) {
+            headers++;
+            nextComment = jorbisComment;
+            jorbisComment = comment;
+            jorbisDspState.synthesis_restart();
+            return;
+        }
+        if (info.synthesis_headerin(comment, joggPacket) < 0) {
+            joggStreamState.reset(); // not vorbis: wait for the next stream to begin
+            lastPage = true;
+            headers = 0;
+            return;
+        }
+        if (++headers == 3 && decoding) {
+            nextInfo = jorbisInfo;
+            jorbisInfo = info;
+            nextComment = jorbisComment;
+            jorbisComment = comment;
+            formatChanged = jorbisInfo.channels != channels || jorbisInfo.rate != rate;
+            channels = jorbisInfo.channels;
+            rate = jorbisInfo.rate;
+            initializeDecoder();
+        }
+    }
+
+    /**
+     * Get the next packet of the stream body and give it to the DspState,
+     * reading pages from the clip as needed. The headers of the next link
+     * of a chained clip are taken in on the way.
+     *
+     * @return false at the end of the clip
+     */
+    private boolean decodeNextPacket() {
+        while (true) {
+            switch (joggStreamState.packetout(joggPacket)) {
+                case 1:
+                    if (headers < 3) { // the start of the next link
+                        header();
+                        continue;
+                    }
+                    // Check that the packet is a audio data packet etc.
+                    if (jorbisBlock.synthesis(joggPacket) == 0) {
+                        jorbisDspState.synthesis_blockin(jorbisBlock);
+                    }
+                    return true;
+                case -1: // a hole in the data, skip it
+                    continue;
+            }
+            if (!nextPage()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Read the next page of the link into the StreamState. Once the link
+     * has ended, the first page of the next stream to begin starts a new
+     * link; pages of any other stream multiplexed with it are skipped.
+     *
+     * @return false at the end of the clip
+     */
+    private boolean nextPage() {
+        while (true) {
+            switch (joggSyncState.pageout(joggPage)) {
+                case -1: // If there is a hole in the data, we just proceed.
+                    continue;
+                case 0: // the end of the clip
+                    return false;
+            }
+            if (lastPage && joggPage.bos() != 0) {
+                serial = joggPage.serialno();
+                joggStreamState.init(serial);
+                headers = 0;
+            } else if (lastPage || joggPage.serialno() != serial) {
+                continue;
+            }
+            joggStreamState.pagein(joggPage);
+            lastPage = joggPage.eos() != 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package edu.stevens.leansound;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sound.sampled.*;
+
+/**
+ * @author Dov Kruger
+ *
+ * The threads that play a sound library. There are three channels,
+ * LoadSounds.SOUNDEFFECT, MUSIC and BACKGROUND, each with a queue of clips
+ * and a fixed number of workers taking clips off it. Effects get several
+ * workers so they overlap; music and background get one, so their clips
+ * play in order.
+ * Each worker owns a Voice and hands it to the one SoundMixer shared by
+ * every channel, so firing an effect never waits for the sound system to
+ * open a line, and only one line is ever open.
+ * For the lowest latency, clips can be preloaded into hot voices: their
+ * headers parsed, decoders set up and first block decoded ahead of time.
+ * trigger() hands a hot voice straight to the mixer from the calling
+ * thread, with no queue, no worker and no header in between, and a job on
+ * the PlaybackScheduler gets the voice ready again once it has played.
+ */
+public class VoiceEngine {
+    public static final int EFFECT_VOICES = 4;
+
+    private final LoadSounds library;
+    private final SoundMixer mixer;
+    private final Channel[] channels;
+
+    // the hot voices waiting for each preloaded clip, and all of them
+    private final ConcurrentHashMap<SoundClip, ConcurrentLinkedQueue<Hot>> ready = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Hot> hot = new CopyOnWriteArrayList<>();
+    // clips triggered without a hot voice, while they play
+    private final Set<SoundMixer.Track> cold = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutdown;
+
+    /**
+     * Play through a new mixer at 44.1kHz
+     *
+     * @throws RuntimeException if no audio line can be opened
+     */
+    public VoiceEngine(LoadSounds library) {
+        this(library, SoundMixer.BUFFER_FRAMES, SoundMixer.BLOCK_FRAMES);
+    }
+
+    /**
+     * Play through a new mixer at 44.1kHz whose line holds bufferFrames
+     * and is written chunkFrames at a time
+     *
+     * @throws RuntimeException if no audio line can be opened
+     */
+    public VoiceEngine(LoadSounds library, int bufferFrames, int chunkFrames) {
+        this(library, startMixer(44100, bufferFrames, chunkFrames), EFFECT_VOICES, 1, 1);
+    }
+
+    /**
+     * @param voices the number of workers for each channel, in the order
+     * SOUNDEFFECT, MUSIC, BACKGROUND
+     */
+    public VoiceEngine(LoadSounds library, SoundMixer mixer, int... voices) {
+        this.library = library;
+        this.mixer = mixer;
+        channels = new Channel[voices.length];
+        for (int i = 0; i < voices.length; i++) {
+            channels[i] = new Channel(i, voices[i]);
+        }
+    }
+
+    private static SoundMixer startMixer(float rate, int bufferFrames, int chunkFrames) {
+        SoundMixer m = new SoundMixer(rate);
+        try {
+            m.start(bufferFrames, chunkFrames);
+        } catch (LineUnavailableException e) {
+            throw new RuntimeException("Audio output line is not supported.", e);
+        }
+        return m;
+    }
+
+    public SoundMixer getMixer() {
+        return mixer;
+    }
+
+    /**
+     * Add a clip to the end of a channel's queue
+     */
+    public void play(int channel, SoundClip clip) {
+        play(channel, clip, 1, 0);
+    }
+
+    /**
+     * @param gain 1 plays the clip as recorded
+     * @param pan -1 is left only, 0 is center, 1 is right only
+     */
+    public void play(int channel, SoundClip clip, float gain, float pan) {
+        Channel c = channel(channel);
+        c.queue.add(new Request(clip, c.generation.get(), gain, pan, System.nanoTime()));
+    }
+
+    /**
+     * Get voices ready to trigger a clip: each has the headers parsed, the
+     * decoder set up and the first block decoded. With more than one, the
+     * clip can be triggered again while it is still playing.
+     */
+    public void preload(SoundClip clip, int voices) {
+        ConcurrentLinkedQueue<Hot> q = ready.computeIfAbsent(clip, k -> new ConcurrentLinkedQueue<>());
+        for (int i = 0; i < voices; i++) {
+            Hot h = new Hot(clip);
+            open(h.voice, clip, true);
+            h.voice.preroll();
+            hot.add(h);
+            q.add(h);
+        }
+    }
+
+    /**
+     * Start a clip at once, alongside everything else, from this thread.
+     * A preloaded clip with a hot voice free only has to be mixed in; any
+     * other clip is opened here first.
+     *
+     * @param gain 1 plays the clip as recorded
+     * @param pan -1 is left only, 0 is center, 1 is right only
+     * @return the playing track
+     */
+    public SoundMixer.Track trigger(SoundClip clip, float gain, float pan) {
+        long triggered = System.nanoTime();
+        ConcurrentLinkedQueue<Hot> q = ready.get(clip);
+        Hot h = q == null ? null : q.poll();
+        if (h == null) { // cold: not preloaded, or every hot voice is playing
+            Voice v = new Voice();
+            open(v, clip, true);
+            AtomicReference<SoundMixer.Track> self = new AtomicReference<>();
+            SoundMixer.Track t = mixer.play(v, gain, pan, triggered, () -> {
+                SoundMixer.Track done = self.get();
+                if (done != null) {
+                    cold.remove(done);
+                }
+            });
+            self.set(t);
+            cold.add(t);
+            if (t.isDone()) { // it ended before it was added
+                cold.remove(t);
+            }
+            return t;
+        }
+        SoundMixer.Track t = mixer.play(h.voice, gain, pan, triggered,
+                () -> PlaybackScheduler.getShared().submit(c -> reheat(h, q)));
+        h.current = t;
+        return t;
+    }
+
+    /*
+     * Open a played hot voice again and put it back with the ready ones
+     */
+    private void reheat(Hot h, ConcurrentLinkedQueue<Hot> q) {
+        if (shutdown) {
+            return;
+        }
+        open(h.voice, h.clip, true);
+        h.voice.preroll();
+        q.add(h);
+    }
+
+    /*
+     * Open a clip in a voice, straight out of the PCM cache if it is a
+     * sound effect the library has decoded
+     */
+    private void open(Voice voice, SoundClip clip, boolean effect) {
+        byte[] pcm = effect ? library.getPcm(clip) : null;
+        if (pcm != null) {
+            voice.open(pcm, clip.getChannels(), clip.getRate());
+        } else {
+            voice.open(clip);
+        }
+    }
+
+    /**
+     * Drop everything queued on a channel and cut off what it is playing,
+     * including on SOUNDEFFECT every clip trigger started, hot or cold
+     */
+    public void stop(int channel) {
+        Channel c = channel(channel);
+        c.generation.incrementAndGet();
+        c.queue.clear();
+        for (Worker w : c.workers) {
+            SoundMixer.Track t = w.current;
+            if (t != null) {
+                t.stop();
+            }
+        }
+        if (channel == LoadSounds.SOUNDEFFECT) { // triggered clips are effects too
+            for (Hot h : hot) {
+                SoundMixer.Track t = h.current;
+                if (t != null) {
+                    t.stop();
+                }
+            }
+            for (SoundMixer.Track t : cold) {
+                t.stop();
+            }
+        }
+    }
+
+    /**
+     * Stop every channel, end the workers and close the mixer
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Channel c : channels) {
+            stop(c.id);
+            for (Worker w : c.workers) {
+                w.interrupt();
+            }
+        }
+        mixer.close();
+    }
+
+    private Channel channel(int channel) {
+        if (channel < 0 || channel >= channels.length) {
+            throw new IllegalArgumentException("no channel " + channel);
+        }
+        return channels[channel];
+    }
+
+    /*
+     * A clip waiting to play, and the generation of its channel when it was
+     * queued; stop() moves the generation on, so the clip is abandoned
+     */
+    private static class Request {
+        final SoundClip clip;
+        final int generation;
+        final float gain, pan;
+        final long queued; // System.nanoTime() when play was called
+
+        Request(SoundClip clip, int generation, float gain, float pan, long queued) {
+            this.clip = clip;
+            this.generation = generation;
+            this.gain = gain;
+            this.pan = pan;
+            this.queued = queued;
+        }
+    }
+
+    /*
+     * A voice kept ready to play one clip
+     */
+    private static class Hot {
+        final SoundClip clip;
+        final Voice voice = new Voice();
+        volatile SoundMixer.Track current; // what it last played
+
+        Hot(SoundClip clip) {
+            this.clip = clip;
+        }
+    }
+
+    private class Channel {
+        final int id;
+        final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+        final AtomicInteger generation = new AtomicInteger();
+        final Worker[] workers;
+
+        Channel(int id, int voices) {
+            this.id = id;
+            workers = new Worker[voices];
+            for (int i = 0; i < voices; i++) {
+                workers[i] = new Worker(this, i);
+                workers[i].start();
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private final Channel channel;
+        private final Voice voice = new Voice();
+        volatile SoundMixer.Track current; // what this worker is playing
+
+        Worker(Channel channel, int n) {
+            super("LeanSound-" + channel.id + "-" + n);
+            this.channel = channel;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Request r = channel.queue.take();
+                    if (r.generation != channel.generation.get()) {
+                        continue;
+                    }
+                    try {
+                        play(r);
+                    } catch (RuntimeException e) {
+                        System.err.println("Failed to play " + r.clip.getName());
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutdown
+            }
+        }
+
+        /*
+         * Give the clip to the mixer and wait until it is done with it, so
+         * the voice can be used again
+         */
+        private void play(Request r) throws InterruptedException {
+            open(voice, r.clip, channel.id == LoadSounds.SOUNDEFFECT);
+            SoundMixer.Track t = mixer.play(voice, r.gain, r.pan, r.queued, null);
+            current = t;
+            if (r.generation != channel.generation.get()) {
+                t.stop(); // stopped while we were opening it
+            }
+            try {
+                t.await();
+            } finally {
+                current = null;
+            }
+        }
+    }
+}
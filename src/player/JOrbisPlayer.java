@@ -433,27 +433,9 @@ public class JOrbisPlayer extends JApplet implements ActionListener, Runnable{
                   float[][] pcmf=_pcmf[0];
                   int bout=(samples<convsize ? samples : convsize);
 
-                  // convert doubles to 16 bit signed ints (host order) and
+                  // convert floats to 16 bit signed ints (little endian) and
                   // interleave
-                  for(i=0; i<vi.channels; i++){
-                    int ptr=i*2;
-                    //int ptr=i;
-                    int mono=_index[i];
-                    for(int j=0; j<bout; j++){
-                      int val=(int)(pcmf[i][mono+j]*32767.);
-                      if(val>32767){
-                        val=32767;
-                      }
-                      if(val<-32768){
-                        val=-32768;
-                      }
-                      if(val<0)
-                        val=val|0x8000;
-                      convbuffer[ptr]=(byte)(val);
-                      convbuffer[ptr+1]=(byte)(val>>>8);
-                      ptr+=2*(vi.channels);
-                    }
-                  }
+                  Pcm16.pack(pcmf, _index, vi.channels, bout, convbuffer, 0, false);
                   outputLine.write(convbuffer, 0, 2*vi.channels*bout);
                   vd.synthesis_read(bout);
                 }
@@ -5,7 +5,7 @@ import edu.stevens.leansound.*;
  * @author dkruger
  */
 public class SayNumber {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         Scanner s = new Scanner(System.in);
         final String clip = "clips/";
         final String[] tensNames = {"ten", "twenty", "thirty", "forty", "fifty", "sixty", "seventy", "eighty", "ninety"};
@@ -15,6 +15,7 @@ public class SayNumber {
             "seventeen","eighteen", "nineteen"
         };
         ExamplePlayer p = new ExamplePlayer();
+        p.setGapless(true);
         int n = s.nextInt();
         if (n > 999) {
             int thousand = n / 1000;
@@ -38,5 +39,6 @@ public class SayNumber {
             }
         }
         p.play();
+        p.await();
     }
 }
@@ -0,0 +1,176 @@
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.SyncState;
+import edu.stevens.leansound.LoadSounds;
+import edu.stevens.leansound.SoundClip;
+import edu.stevens.leansound.SoundMixer;
+import edu.stevens.leansound.Voice;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Play chained clips, several ogg streams one after another as an Icecast
+ * relay sends them, and a clip with a second stream multiplexed with its
+ * own. A chain must play exactly the samples of its links played one by
+ * one, including links that change the number of channels or the rate, and
+ * the multiplexed clip exactly the samples of its first stream. Each clip
+ * is also run through a SoundMixer to check the format changes there, and
+ * read one frame at a time, which must give the same samples; a read too
+ * short for a frame must be refused, streamed or cached.
+ * Usage: java TestChained [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestChained {
+    // the links of each chained clip
+    static final String[][] chains = {
+        {"2", "3", "4"},                // the same setup three times
+        {"bell", "shotgun"},
+        {"2", "sick-dragon", "dorm-door-opening", "3"} // mono, then 48 kHz
+    };
+
+    static byte[] decode(Voice v, SoundClip c) {
+        v.open(c);
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] b = new byte[4096];
+        int n;
+        while ((n = v.read(b, 0, b.length)) >= 0) {
+            pcm.write(b, 0, n);
+        }
+        return pcm.toByteArray();
+    }
+
+    static ArrayList<byte[]> pages(byte[] ogg) {
+        SyncState sync = new SyncState();
+        sync.wrap(ogg, 0, ogg.length);
+        Page page = new Page();
+        ArrayList<byte[]> pages = new ArrayList<>();
+        while (sync.pageout(page) == 1) {
+            byte[] p = Arrays.copyOfRange(page.header_base, page.header, page.header + page.header_len + page.body_len);
+            System.arraycopy(page.body_base, page.body, p, page.header_len, page.body_len);
+            pages.add(p);
+        }
+        return pages;
+    }
+
+    /*
+     * Decode a clip a frame at a time, the frame of the link being read
+     */
+    static byte[] decodeFrames(Voice v, SoundClip c) {
+        v.open(c);
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] b = new byte[8];
+        int n;
+        while ((n = v.read(b, 0, 2 * v.getChannels())) >= 0) {
+            pcm.write(b, 0, n);
+        }
+        return pcm.toByteArray();
+    }
+
+    /*
+     * Whether a read of less than a frame throws
+     */
+    static boolean refusesShortRead(Voice v) {
+        try {
+            v.read(new byte[8], 0, 2 * v.getChannels() - 1);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /*
+     * Mix a whole clip and count the frames that came out
+     */
+    static long mix(SoundMixer mixer, Voice v, SoundClip c) {
+        v.open(c);
+        SoundMixer.Track t = mixer.play(v, 1, 0);
+        byte[] block = new byte[4 * SoundMixer.BLOCK_FRAMES];
+        long frames = 0;
+        while (!t.isDone()) {
+            mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+            frames += SoundMixer.BLOCK_FRAMES;
+        }
+        return frames;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "clips");
+        File tmp = Files.createTempDirectory("TestChained").toFile();
+        HashMap<String, byte[]> ogg = new HashMap<>();
+        for (String[] chain : chains) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (String name : chain) {
+                byte[] b = Files.readAllBytes(new File(dir, name + ".ogg").toPath());
+                ogg.put(name, b);
+                out.write(b);
+            }
+            ogg.put(String.join("+", chain), out.toByteArray());
+        }
+        // a bell with a shotgun multiplexed: both first pages, then taking turns
+        ArrayList<byte[]> a = pages(ogg.get("bell")), b = pages(ogg.get("shotgun"));
+        ByteArrayOutputStream mux = new ByteArrayOutputStream();
+        for (int i = 0; i < Math.max(a.size(), b.size()); i++) {
+            if (i < a.size()) {
+                mux.write(a.get(i));
+            }
+            if (i < b.size()) {
+                mux.write(b.get(i));
+            }
+        }
+        ogg.put("bell|shotgun", mux.toByteArray());
+        for (String name : ogg.keySet()) {
+            Files.write(new File(tmp, name + ".ogg").toPath(), ogg.get(name));
+        }
+
+        LoadSounds sounds = new LoadSounds(new File(tmp, "audio.db").getPath(), tmp.getPath());
+        HashMap<String, SoundClip> clips = new HashMap<>();
+        for (SoundClip c : sounds.getClips()) {
+            clips.put(c.getName(), c);
+        }
+        Voice v = new Voice();
+        SoundMixer mixer = new SoundMixer(44100);
+        boolean ok = true;
+        String[][] tests = Arrays.copyOf(chains, chains.length + 1);
+        tests[chains.length] = new String[] {"bell"};
+        for (String[] links : tests) {
+            String name = links.length > 1 ? String.join("+", links) : "bell|shotgun";
+            SoundClip c = clips.get(name);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            long granules = 0;
+            double frames = 0;
+            for (String link : links) {
+                SoundClip l = clips.get(link);
+                expected.write(decode(v, l));
+                granules += l.getGranules();
+                frames += (double) l.getGranules() * 44100 / l.getRate();
+            }
+            byte[] pcm = decode(v, c);
+            long mixed = mix(mixer, v, c);
+            boolean same = Arrays.equals(pcm, expected.toByteArray())
+                    && Arrays.equals(pcm, decodeFrames(v, c));
+            v.open(c);
+            boolean refused = refusesShortRead(v);
+            v.open(pcm, v.getChannels(), v.getRate());
+            refused &= refusesShortRead(v);
+            boolean length = c.getGranules() == granules;
+            // the mixer plays out in whole blocks and drops a frame at a change of format
+            boolean played = mixed >= frames - links.length && mixed < frames + SoundMixer.BLOCK_FRAMES + 1;
+            System.out.printf("%-40s %8d bytes %s, %d samples%s, %d frames mixed%s%n", name, pcm.length,
+                    same ? "as played link by link" : "DIFFER", c.getGranules(), length ? "" : " (WRONG)",
+                    mixed, played ? "" : " (WRONG)");
+            if (!refused) {
+                System.out.println(name + ": a read shorter than a frame was not refused");
+            }
+            ok &= same && length && played && refused;
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+        for (File f : tmp.listFiles()) {
+            f.delete();
+        }
+        tmp.delete();
+    }
+}
@@ -0,0 +1,79 @@
+import edu.stevens.leansound.LoadSounds;
+import edu.stevens.leansound.SoundClip;
+import edu.stevens.leansound.Voice;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Decode throughput with 1, 2, 4 ... independent decoders running at once,
+ * each in its own thread with its own Voice, every one decoding the whole
+ * library. If decoders share no locks, the total rate grows with the
+ * number of threads until the cores run out.
+ * Usage: java TestDecodeScaling [audio.db] [max threads]
+ *
+ * @author dkruger
+ */
+public class TestDecodeScaling {
+    static long decodeAll(LoadSounds sounds, Voice v, byte[] buffer) {
+        long bytes = 0;
+        for (SoundClip c : sounds.getClips()) {
+            v.open(c);
+            int n;
+            while ((n = v.read(buffer, 0, buffer.length)) >= 0) {
+                bytes += n;
+            }
+        }
+        return bytes;
+    }
+
+    /*
+     * @return decoded bytes per second over all threads
+     */
+    static double run(final LoadSounds sounds, int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] bytes = new long[threads];
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                Voice v = new Voice();
+                byte[] buffer = new byte[8192];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                bytes[id] = decodeAll(sounds, v, buffer);
+            });
+            t.start();
+            workers.add(t);
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - t0) / 1e9;
+        long total = 0;
+        for (long b : bytes) {
+            total += b;
+        }
+        return total / seconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSounds sounds = LoadSounds.fastLoad(args.length > 0 ? args[0] : "audio.db");
+        int cores = Runtime.getRuntime().availableProcessors();
+        int max = args.length > 1 ? Integer.parseInt(args[1]) : 2 * cores;
+
+        run(sounds, cores); // warm up the decoder
+        run(sounds, 1);
+        double single = run(sounds, 1);
+        System.out.println(cores + " cores");
+        for (int threads = 1; threads <= max; threads *= 2) {
+            double rate = threads == 1 ? single : run(sounds, threads);
+            System.out.printf("%3d threads: %7.1f MB/s of PCM, %5.2fx one thread%n",
+                    threads, rate / 1e6, rate / single);
+        }
+    }
+}
@@ -15,6 +15,7 @@ public class TestExample {
         p.stopCurrentSong();
         Thread.sleep(1000);
         p.continueCurrentSong();
+        p.await();
         //p.clearSounds(); // remove all sounds from queue, leaving the current one playing
         // set a flag so that the next time the current player goes to get more data,it will stop playing this sound
     }
@@ -0,0 +1,163 @@
+import edu.stevens.leansound.LineStats;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Write to a fake line through LineStats, with several buffer and chunk
+ * sizes, and check that it counts the underruns the line really had. The
+ * line plays in real time like a sound card, and knows when it ran dry.
+ * For each size the line is kept fed, which must count none; starved
+ * before some of the writes, which must count each of those; and starved
+ * after idle(), which must count none although the line did run dry.
+ * Usage: java TestLineStats [writes per run]
+ *
+ * @author dkruger
+ */
+public class TestLineStats {
+    // buffer and chunk sizes, in frames
+    static final int[][] sizes = {{4096, 1024}, {2048, 512}, {8192, 2048}, {1024, 1024}};
+
+    /**
+     * A line with a buffer of getBufferSize() bytes that plays out at the
+     * sample rate. It counts an underrun when a write comes after it has
+     * played everything, then carries on from there.
+     */
+    static class FakeLine implements SourceDataLine {
+        AudioFormat format;
+        int size;
+        long written;    // frames
+        long start = -1; // nanoTime when frame 0 played, allowing for underruns
+        boolean open;
+        int underruns;
+
+        long played() {
+            if (start < 0) {
+                return 0;
+            }
+            long p = (long) ((System.nanoTime() - start) * 1e-9 * format.getSampleRate());
+            return Math.min(p, written);
+        }
+
+        public synchronized int write(byte[] b, int off, int len) {
+            int frameSize = format.getFrameSize();
+            if (start < 0) {
+                start = System.nanoTime();
+            } else if (played() >= written) { // it was silent until now
+                underruns++;
+                start = System.nanoTime() - (long) (written * 1e9 / format.getSampleRate());
+            }
+            for (int done = 0; done < len; ) {
+                int room = size - (int) (written - played()) * frameSize;
+                if (room <= 0) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return done;
+                    }
+                    continue;
+                }
+                int n = Math.min(room, len - done);
+                written += n / frameSize;
+                done += n;
+            }
+            return len;
+        }
+
+        public synchronized int available() {
+            return size - (int) (written - played()) * format.getFrameSize();
+        }
+
+        public synchronized long getLongFramePosition() { return played(); }
+        public int getFramePosition() { return (int) getLongFramePosition(); }
+        public int getBufferSize() { return size; }
+        public AudioFormat getFormat() { return format; }
+
+        public void open(AudioFormat format, int bufferSize) {
+            this.format = format;
+            size = bufferSize;
+            open = true;
+        }
+
+        public void open(AudioFormat format) { open(format, (int) format.getSampleRate() / 2 * format.getFrameSize()); }
+        public void open() { open(new AudioFormat(44100, 16, 2, true, false)); }
+        public void close() { open = false; }
+        public boolean isOpen() { return open; }
+        public void drain() {
+            while (getLongFramePosition() < written) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+        public void flush() {}
+        public void start() {}
+        public void stop() {}
+        public boolean isRunning() { return true; }
+        public boolean isActive() { return true; }
+        public long getMicrosecondPosition() { return (long) (getLongFramePosition() * 1e6 / format.getSampleRate()); }
+        public float getLevel() { return AudioSystem.NOT_SPECIFIED; }
+        public Line.Info getLineInfo() { return new DataLine.Info(SourceDataLine.class, format); }
+        public Control[] getControls() { return new Control[0]; }
+        public boolean isControlSupported(Control.Type t) { return false; }
+        public Control getControl(Control.Type t) { throw new IllegalArgumentException(t + " is not supported"); }
+        public void addLineListener(LineListener l) {}
+        public void removeLineListener(LineListener l) {}
+    }
+
+    /*
+     * Write a chunk writes times, letting the line run dry before every
+     * fifth if starve is set, after calling idle() first if idle is set.
+     * @return the underruns the line had, and those LineStats counted
+     */
+    static int[] run(int bufferFrames, int chunkFrames, int writes, boolean starve, boolean idle)
+            throws InterruptedException {
+        FakeLine line = new FakeLine();
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        line.open(format, bufferFrames * format.getFrameSize());
+        LineStats stats = new LineStats();
+        stats.opened();
+        byte[] chunk = new byte[chunkFrames * format.getFrameSize()];
+        long bufferMillis = (long) (bufferFrames * 1000 / format.getSampleRate());
+        for (int i = 0; i < writes; i++) {
+            if (starve && i > 0 && i % 5 == 0) {
+                if (idle) {
+                    stats.idle();
+                }
+                Thread.sleep(bufferMillis + 20); // more than the whole buffer plays out
+            }
+            stats.write(line, chunk, 0, chunk.length);
+        }
+        if (stats.getBufferFrames() != bufferFrames || stats.getChunkFrames() != chunkFrames) {
+            System.out.println("  LineStats says a " + stats.getBufferFrames() + " frame buffer and "
+                    + stats.getChunkFrames() + " frame writes");
+            return new int[] {-1, -2};
+        }
+        return new int[] {line.underruns, (int) stats.getUnderruns()};
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int stalls = (writes - 1) / 5;
+        boolean ok = true;
+        for (int[] s : sizes) {
+            int[] fed = run(s[0], s[1], writes, false, false);
+            int[] starved = run(s[0], s[1], writes, true, false);
+            int[] idle = run(s[0], s[1], writes, true, true);
+            boolean right = fed[0] == 0 && fed[1] == 0
+                    && starved[0] == stalls && starved[1] == stalls
+                    && idle[0] == stalls && idle[1] == 0;
+            System.out.printf("%5d frame buffer, %4d frame writes: underruns fed %d/%d, starved %d/%d,"
+                    + " idle %d/%d (line/counted)%s%n", s[0], s[1], fed[0], fed[1], starved[0], starved[1],
+                    idle[0], idle[1], right ? "" : " WRONG");
+            ok &= right;
+        }
+        System.out.println(ok ? "OK" : "FAILED");
+    }
+}
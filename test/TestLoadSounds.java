@@ -1,4 +1,5 @@
 import edu.stevens.leansound.LoadSounds;
+import edu.stevens.leansound.SoundClip;
 /**
  *
  * @author dkruger
@@ -7,6 +8,10 @@ public class TestLoadSounds {
     public static void main(String[] args) throws Exception {
         LoadSounds sounds = new LoadSounds("audio.db", "clips");
         sounds.save();
-        
+
+        LoadSounds fast = LoadSounds.fastLoad("audio.db");
+        for (SoundClip c : fast.getClips()) {
+            System.out.println(c);
+        }
     }
 }
@@ -0,0 +1,102 @@
+import com.jcraft.jorbis.Pcm16;
+import java.util.Random;
+
+/**
+ * Check Pcm16 against the conversion loop the decoders used to carry, and
+ * time both. Usage: java TestPcm16 [seconds of audio per run]
+ *
+ * @author dkruger
+ */
+public class TestPcm16 {
+    static final int BLOCK = 1024; // samples per channel handed out at once
+
+    /*
+     * The loop that was copied into every decoder
+     */
+    static void legacy(float[][] pcm, int[] index, int channels, int range, byte[] out) {
+        for (int i = 0; i < channels; i++) {
+            int sampleIndex = i * 2;
+            for (int j = 0; j < range; j++) {
+                int value = (int) (pcm[i][index[i] + j] * 32767);
+                if (value > 32767) {
+                    value = 32767;
+                }
+                if (value < -32768) {
+                    value = -32768;
+                }
+                if (value < 0) {
+                    value = value | 32768;
+                }
+                out[sampleIndex] = (byte) (value);
+                out[sampleIndex + 1] = (byte) (value >>> 8);
+                sampleIndex += 2 * channels;
+            }
+        }
+    }
+
+    static long timeLegacy(float[][] pcm, int[] index, int channels, int blocks, byte[] out) {
+        long t = System.nanoTime();
+        for (int n = 0; n < blocks; n++) {
+            legacy(pcm, index, channels, BLOCK, out);
+        }
+        return System.nanoTime() - t;
+    }
+
+    static long timePack(float[][] pcm, int[] index, int channels, int blocks, byte[] out,
+            Pcm16.Dither dither) {
+        long t = System.nanoTime();
+        for (int n = 0; n < blocks; n++) {
+            Pcm16.pack(pcm, index, channels, BLOCK, out, 0, false, dither);
+        }
+        return System.nanoTime() - t;
+    }
+
+    static float[][] signal(int channels, Random r) {
+        float[][] pcm = new float[channels][BLOCK + 7];
+        for (float[] c : pcm) {
+            for (int j = 0; j < c.length; j++) {
+                c[j] = (float) (r.nextGaussian() * 0.4); // some samples clip
+            }
+        }
+        return pcm;
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 60;
+        int blocks = (int) (seconds * 44100 / BLOCK);
+        Random r = new Random(1);
+        boolean ok = true;
+        for (int channels : new int[]{1, 2, 6}) {
+            float[][] pcm = signal(channels, r);
+            int[] index = new int[channels];
+            for (int i = 0; i < channels; i++) {
+                index[i] = i; // every channel starts somewhere else
+            }
+            byte[] a = new byte[2 * channels * BLOCK];
+            byte[] b = new byte[a.length];
+            byte[] big = new byte[a.length];
+            legacy(pcm, index, channels, BLOCK, a);
+            Pcm16.pack(pcm, index, channels, BLOCK, b, 0, false);
+            Pcm16.pack(pcm, index, channels, BLOCK, big, 0, true);
+            for (int k = 0; k < a.length; k += 2) {
+                if (a[k] != b[k] || a[k + 1] != b[k + 1] || a[k] != big[k + 1] || a[k + 1] != big[k]) {
+                    System.out.println(channels + " channels: mismatch at byte " + k);
+                    ok = false;
+                    break;
+                }
+            }
+
+            Pcm16.Dither dither = new Pcm16.Dither();
+            long legacy = 0, pack = 0, dithered = 0;
+            for (int round = 0; round < 5; round++) { // the last round is measured
+                legacy = timeLegacy(pcm, index, channels, blocks, a);
+                pack = timePack(pcm, index, channels, blocks, b, null);
+                dithered = timePack(pcm, index, channels, blocks, b, dither);
+            }
+            double samples = (double) blocks * BLOCK * channels;
+            System.out.printf("%d channels: legacy %.2f ns/sample, Pcm16 %.2f, dithered %.2f%n",
+                    channels, legacy / samples, pack / samples, dithered / samples);
+        }
+        System.out.println(ok ? "Pcm16 matches the legacy conversion" : "FAILED");
+    }
+}
@@ -0,0 +1,188 @@
+import com.jcraft.jogg.*;
+import com.jcraft.jorbis.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Decode every clip in a directory four times at once: pulled with
+ * synthesis_pcmout/synthesis_read as the decoders used to, and pushed into
+ * a Pcm16.Packer, an Interleaver and a PcmWriter making a WAV file. Check
+ * that all four give the same samples, and count what the pull and push
+ * loops allocate. Usage: java TestPcmSink [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestPcmSink {
+    /*
+     * Just enough of a decoder to step through a clip a packet at a time
+     */
+    static class Decoder {
+        final SyncState oy = new SyncState();
+        final StreamState os = new StreamState();
+        final Page og = new Page();
+        final Packet op = new Packet();
+        final Info vi = new Info();
+        final Comment vc = new Comment();
+        final DspState vd = new DspState();
+        final Block vb = new Block(vd);
+
+        Decoder(byte[] ogg) {
+            oy.init();
+            oy.wrap(ogg, 0, ogg.length);
+            vi.init();
+            vc.init();
+            for (int headers = 0; headers < 3;) {
+                if (os.packetout(op) == 1) {
+                    vi.synthesis_headerin(vc, op);
+                    headers++;
+                } else if (oy.pageout(og) == 1) {
+                    if (headers == 0) {
+                        os.init(og.serialno());
+                    }
+                    os.pagein(og);
+                } else {
+                    throw new RuntimeException("missing headers");
+                }
+            }
+            vd.synthesis_init(vi);
+            vb.init(vd);
+        }
+
+        /*
+         * Give the next audio packet to the DspState
+         *
+         * @return false at the end of the clip
+         */
+        boolean next() {
+            while (os.packetout(op) != 1) {
+                if (oy.pageout(og) != 1) {
+                    return false;
+                }
+                os.pagein(og);
+            }
+            if (vb.synthesis(op) == 0) {
+                vd.synthesis_blockin(vb);
+            }
+            return true;
+        }
+    }
+
+    static final int FRAMES = 1000; // what each read asks for
+
+    static long pull(Decoder d, byte[] buffer, ByteArrayOutputStream pcm) {
+        float[][][] _pcm = new float[1][][];
+        int[] _index = new int[d.vi.channels];
+        long bytes = 0;
+        while (d.next()) {
+            int samples;
+            while ((samples = d.vd.synthesis_pcmout(_pcm, _index)) > 0) {
+                int n = Math.min(samples, FRAMES);
+                int b = Pcm16.pack(_pcm[0], _index, d.vi.channels, n, buffer, 0, false);
+                if (pcm != null) {
+                    pcm.write(buffer, 0, b);
+                }
+                bytes += b;
+                d.vd.synthesis_read(n);
+            }
+        }
+        return bytes;
+    }
+
+    static long push(Decoder d, byte[] buffer, Pcm16.Packer packer, ByteArrayOutputStream pcm) {
+        int len = FRAMES * 2 * d.vi.channels;
+        long bytes = 0;
+        while (d.next()) {
+            while (d.vd.synthesis_pcmout(packer.into(buffer, 0, len)) > 0) {
+                if (pcm != null) {
+                    pcm.write(buffer, 0, packer.position());
+                }
+                bytes += packer.position();
+            }
+        }
+        return bytes;
+    }
+
+    static float[] interleave(Decoder d) {
+        Interleaver sink = new Interleaver();
+        float[] all = new float[0];
+        int length = 0;
+        while (d.next()) {
+            while (true) {
+                all = Arrays.copyOf(all, Math.max(all.length, length + FRAMES * d.vi.channels));
+                if (d.vd.synthesis_pcmout(sink.into(all, length, FRAMES, d.vi.channels)) == 0) {
+                    break;
+                }
+                length = sink.position();
+            }
+        }
+        return Arrays.copyOf(all, length);
+    }
+
+    static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File(args.length > 0 ? args[0] : "clips").listFiles((f, n) -> n.endsWith(".ogg"));
+        Arrays.sort(files);
+        byte[] buffer = new byte[FRAMES * 2 * 8];
+        Pcm16.Packer packer = new Pcm16.Packer(false, null);
+        File wav = File.createTempFile("TestPcmSink", ".wav");
+        wav.deleteOnExit();
+        boolean ok = true;
+        for (File f : files) {
+            byte[] ogg = Files.readAllBytes(f.toPath());
+            ByteArrayOutputStream a = new ByteArrayOutputStream(), b = new ByteArrayOutputStream();
+            pull(new Decoder(ogg), buffer, a);
+            push(new Decoder(ogg), buffer, packer, b);
+            byte[] pulled = a.toByteArray();
+
+            Decoder d = new Decoder(ogg);
+            float[] floats = interleave(d);
+            byte[] packed = new byte[2 * floats.length];
+            Pcm16.pack(new float[][]{floats}, new int[1], 1, floats.length, packed, 0, false);
+
+            try (PcmWriter w = new PcmWriter(wav, d.vi.channels, d.vi.rate)) {
+                Decoder e = new Decoder(ogg);
+                while (e.next()) {
+                    e.vd.synthesis_pcmout(w);
+                }
+            }
+            byte[] file = Files.readAllBytes(wav.toPath());
+            boolean header = file.length == 44 + pulled.length
+                    && new String(file, 0, 4).equals("RIFF") && new String(file, 36, 4).equals("data")
+                    && (file[40] & 0xff | (file[41] & 0xff) << 8 | (file[42] & 0xff) << 16) == pulled.length;
+
+            if (!Arrays.equals(pulled, b.toByteArray()) || !Arrays.equals(pulled, packed)
+                    || !header || !Arrays.equals(pulled, 0, pulled.length, file, 44, file.length)) {
+                System.out.println(f.getName() + ": the sinks differ from the pull loop");
+                ok = false;
+            }
+        }
+        System.out.println(ok ? files.length + " clips identical through every sink" : "FAILED");
+
+        // What the decode loops allocate, after warming up. The first
+        // packet sizes the decoder's buffers, so it is left out.
+        byte[] ogg = Files.readAllBytes(files[0].toPath());
+        long pulled = 0, pushed = 0, bytes = 0;
+        for (int round = 0; round < 20; round++) {
+            Decoder p = new Decoder(ogg), q = new Decoder(ogg);
+            p.next();
+            q.next();
+            long t = allocated();
+            long self = allocated() - t; // asking allocates too
+            t = allocated();
+            bytes = pull(p, buffer, null);
+            pulled = allocated() - t - self;
+            t = allocated();
+            push(q, buffer, packer, null);
+            pushed = allocated() - t - self;
+        }
+        System.out.printf("%s, %d bytes of PCM: pull loop allocated %d bytes, push loop %d%n",
+                files[0].getName(), bytes, pulled, pushed);
+    }
+}
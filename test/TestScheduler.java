@@ -0,0 +1,102 @@
+import edu.stevens.leansound.PlaybackScheduler;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedule thousands of short make-believe clips on a PlaybackScheduler at
+ * once, each a job that plays BLOCKS blocks of a few milliseconds. Pause
+ * them all and check that no block is played until they are resumed, then
+ * stop every other one and check that the stopped ones end early and the
+ * rest play out. Clips that were over before the pause do not count.
+ * Without virtual threads, also check that the scheduler never ran more
+ * threads than its ceiling, however many clips were scheduled.
+ * Usage: java TestScheduler [clips]
+ *
+ * @author dkruger
+ */
+public class TestScheduler {
+    static final int BLOCKS = 100;
+    static final long BLOCK_MS = 5; // what writing one block to a line takes
+
+    static final AtomicLong played = new AtomicLong();
+
+    static void play(PlaybackScheduler.Control c, int[] blocks, int clip) {
+        for (int b = 0; b < BLOCKS && c.proceed(); b++) {
+            try {
+                Thread.sleep(BLOCK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            blocks[clip]++;
+            played.incrementAndGet();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clips = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int before = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        PlaybackScheduler s = new PlaybackScheduler();
+        System.out.println(s.isVirtual() ? "virtual threads" : "platform threads");
+        int[] blocks = new int[clips];
+        PlaybackScheduler.Control[] c = new PlaybackScheduler.Control[clips];
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < clips; i++) {
+            final int clip = i;
+            c[i] = i % 2 == 0 ? s.submit(k -> play(k, blocks, clip))
+                    : s.schedule(k -> play(k, blocks, clip), 1, TimeUnit.MILLISECONDS);
+        }
+        long scheduled = System.nanoTime() - t0;
+        Thread.sleep(20 * BLOCK_MS);
+
+        for (PlaybackScheduler.Control k : c) {
+            k.pause();
+        }
+        Thread.sleep(10 * BLOCK_MS); // let the blocks under way finish
+        long paused = played.get();
+        Thread.sleep(20 * BLOCK_MS);
+        long during = played.get() - paused;
+
+        int over = 0; // stopped clips that had already played out
+        for (int i = 0; i < clips; i += 2) {
+            if (c[i].isDone()) {
+                over++;
+            }
+            c[i].stop();
+        }
+        for (int i = 1; i < clips; i += 2) {
+            c[i].resume();
+        }
+        for (PlaybackScheduler.Control k : c) {
+            k.await();
+        }
+        long total = System.nanoTime() - t0;
+
+        boolean ok = during == 0;
+        int stoppedEarly = 0;
+        for (int i = 0; i < clips; i++) {
+            if (i % 2 == 1 && blocks[i] != BLOCKS) {
+                ok = false;
+            }
+            if (i % 2 == 0 && blocks[i] < BLOCKS) {
+                stoppedEarly++;
+            }
+        }
+        ok &= stoppedEarly == clips / 2 - over;
+        // the pool's threads and the timer's
+        int added = threads.getPeakThreadCount() - before;
+        boolean bounded = s.isVirtual() || added <= s.getMaxThreads() + 1;
+        ok &= bounded;
+        System.out.printf("%d clips scheduled in %.1f ms, all done in %.0f ms, %d threads added%s%n",
+                clips, scheduled / 1e6, total / 1e6, added,
+                bounded ? "" : " (more than " + s.getMaxThreads() + " and a timer)");
+        System.out.println(during + " blocks played while paused, " + stoppedEarly + " of "
+                + (clips / 2 - over) + " stopped clips ended early");
+        System.out.println(ok ? "OK" : "FAILED");
+        s.shutdown();
+    }
+}
@@ -0,0 +1,83 @@
+import com.jcraft.jorbis.Simd;
+import edu.stevens.leansound.LoadSounds;
+import edu.stevens.leansound.SoundClip;
+import edu.stevens.leansound.Voice;
+import java.util.ArrayList;
+
+/**
+ * Decode every clip in a directory with the scalar decoder and with the
+ * Vector API one, check that the PCM is the same bit for bit, and time
+ * both. Run with the vector module, or only the scalar decoder is there:
+ * java --add-modules jdk.incubator.vector TestSimd [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestSimd {
+    static ArrayList<float[]> decodeAll(LoadSounds sounds, Voice v) {
+        ArrayList<float[]> pcm = new ArrayList<>();
+        float[] buffer = new float[4096];
+        for (SoundClip c : sounds.getClips()) {
+            v.open(c);
+            float[] all = new float[(int) c.getGranules() * c.getChannels()];
+            int length = 0, n;
+            while ((n = v.read(buffer, 0, buffer.length / c.getChannels())) >= 0) {
+                n *= c.getChannels();
+                if (length + n > all.length) {
+                    all = java.util.Arrays.copyOf(all, length + n);
+                }
+                System.arraycopy(buffer, 0, all, length, n);
+                length += n;
+            }
+            pcm.add(java.util.Arrays.copyOf(all, length));
+        }
+        return pcm;
+    }
+
+    static long time(LoadSounds sounds, Voice v, boolean simd) {
+        Simd.setEnabled(simd);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long t = System.nanoTime();
+            decodeAll(sounds, v);
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        return best;
+    }
+
+    public static void main(String[] args) {
+        if (!Simd.available()) {
+            System.out.println("The Vector API decoder is not available; "
+                    + "build on JDK 17+ and run with --add-modules jdk.incubator.vector");
+            return;
+        }
+        LoadSounds sounds = new LoadSounds("unused.db", args.length > 0 ? args[0] : "clips");
+        Voice v = new Voice();
+        Simd.setEnabled(false);
+        ArrayList<float[]> scalar = decodeAll(sounds, v);
+        Simd.setEnabled(true);
+        ArrayList<float[]> vector = decodeAll(sounds, v);
+
+        boolean ok = true;
+        int i = 0;
+        for (SoundClip c : sounds.getClips()) {
+            float[] a = scalar.get(i), b = vector.get(i);
+            i++;
+            int differ = a.length == b.length ? 0 : -1;
+            for (int k = 0; differ == 0 && k < a.length; k++) {
+                if (Float.floatToRawIntBits(a[k]) != Float.floatToRawIntBits(b[k])) {
+                    differ = k + 1;
+                }
+            }
+            if (differ != 0) {
+                System.out.println(c.getName() + ": differs"
+                        + (differ > 0 ? " at sample " + (differ - 1) : " in length"));
+                ok = false;
+            }
+        }
+        System.out.println(ok ? sounds.getClips().size() + " clips identical" : "FAILED");
+
+        long s = time(sounds, v, false);
+        long t = time(sounds, v, true);
+        System.out.printf("whole library: scalar %.1f ms, vector %.1f ms%n", s / 1e6, t / 1e6);
+    }
+}
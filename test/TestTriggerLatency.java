@@ -0,0 +1,117 @@
+import edu.stevens.leansound.LatencyStats;
+import edu.stevens.leansound.LoadSounds;
+import edu.stevens.leansound.SoundClip;
+import edu.stevens.leansound.SoundMixer;
+import edu.stevens.leansound.VoiceEngine;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Time every short clip in a library from being started to its first
+ * sample being mixed, three ways: queued with play(), triggered cold and
+ * triggered from a preloaded hot voice. The mixer is not started, so the
+ * test pulls blocks out of it by hand and no line is needed; the times
+ * leave out the line's own buffering, which is the same for all three.
+ * Also checks that a hot voice plays exactly what a cold one does, and
+ * that stopping the effects channel cuts off clips triggered hot and cold.
+ * Usage: java TestTriggerLatency [audio.db] [longest clip in seconds]
+ *
+ * @author dkruger
+ */
+public class TestTriggerLatency {
+    static final byte[] block = new byte[4 * SoundMixer.BLOCK_FRAMES];
+
+    /*
+     * Mix until the track ends, keeping what was mixed if out is not null
+     */
+    static void playOut(SoundMixer mixer, SoundMixer.Track t, ByteArrayOutputStream out) {
+        while (!t.isDone()) {
+            mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+            if (out != null) {
+                out.write(block, 0, block.length);
+            }
+        }
+    }
+
+    static double round(SoundMixer mixer, VoiceEngine engine, ArrayList<SoundClip> clips, int how)
+            throws InterruptedException {
+        LatencyStats latency = mixer.getLatency();
+        latency.clear();
+        for (SoundClip c : clips) {
+            int count = latency.getCount();
+            if (how == 0) {
+                engine.play(LoadSounds.SOUNDEFFECT, c);
+                while (latency.getCount() == count) { // a worker has to take it
+                    mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+                    Thread.yield();
+                }
+                while (mixer.getTrackCount() > 0) {
+                    mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+                }
+            } else {
+                SoundMixer.Track t = engine.trigger(c, 1, 0);
+                mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+                playOut(mixer, t, null);
+            }
+        }
+        Thread.sleep(200); // let the hot voices get ready again
+        return latency.getMeanMillis();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadSounds sounds = LoadSounds.fastLoad(args.length > 0 ? args[0] : "audio.db");
+        double longest = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        ArrayList<SoundClip> clips = new ArrayList<>();
+        for (SoundClip c : sounds.getClips()) {
+            if (c.getDuration() <= longest) {
+                clips.add(c);
+            }
+        }
+        SoundMixer mixer = new SoundMixer(44100);
+        VoiceEngine engine = new VoiceEngine(sounds, mixer, 1, 1, 1);
+
+        boolean ok = true;
+        for (SoundClip c : clips) {
+            ByteArrayOutputStream cold = new ByteArrayOutputStream(), hot = new ByteArrayOutputStream();
+            playOut(mixer, engine.trigger(c, 1, 0), cold);
+            engine.preload(c, 1);
+            playOut(mixer, engine.trigger(c, 1, 0), hot);
+            if (!Arrays.equals(cold.toByteArray(), hot.toByteArray())) {
+                System.out.println(c.getName() + ": the hot voice played something else");
+                ok = false;
+            }
+        }
+        Thread.sleep(200);
+
+        // one clip triggered hot and one cold, both cut off by stop
+        SoundClip first = clips.get(0);
+        SoundMixer.Track[] playing = {engine.trigger(first, 1, 0), engine.trigger(first, 1, 0)};
+        mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+        engine.stop(LoadSounds.SOUNDEFFECT);
+        mixer.mix(block, SoundMixer.BLOCK_FRAMES);
+        for (SoundMixer.Track t : playing) {
+            if (!t.isDone()) {
+                System.out.println(first.getName() + ": a triggered clip played on after stop");
+                ok = false;
+            }
+        }
+        Thread.sleep(200);
+
+        String[] names = {"queued with play()", "triggered cold", "triggered hot"};
+        double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        VoiceEngine coldEngine = new VoiceEngine(sounds, mixer, 1, 1, 1);
+        for (int r = 0; r < 5; r++) {
+            best[0] = Math.min(best[0], round(mixer, engine, clips, 0));
+            best[1] = Math.min(best[1], round(mixer, coldEngine, clips, 1));
+            best[2] = Math.min(best[2], round(mixer, engine, clips, 2));
+        }
+        System.out.println(clips.size() + " clips of " + longest + " s or less, trigger to first sample mixed:");
+        for (int i = 0; i < 3; i++) {
+            System.out.printf("  %-20s %7.3f ms%n", names[i], best[i]);
+        }
+        System.out.println(ok ? "hot voices play the same samples as cold ones" : "FAILED");
+        engine.shutdown();
+        coldEngine.shutdown();
+    }
+}
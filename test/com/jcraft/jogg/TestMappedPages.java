@@ -0,0 +1,84 @@
+package com.jcraft.jogg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read the pages of every clip in a directory out of a mapping of its file
+ * and check that SyncState copies none of it: it never takes storage of
+ * its own, and every page it returns lies in the mapping. The packets put
+ * together from those pages must be the same as from the file read onto
+ * the heap, with every checksum checked.
+ * Usage: java com.jcraft.jogg.TestMappedPages [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestMappedPages {
+    /*
+     * All the packets of the first stream, one after another, or null if
+     * a page did not come from the mapping or SyncState buffered anything
+     */
+    static byte[] packets(ByteBuffer clip, boolean mapped) {
+        SyncState sync = new SyncState();
+        StreamState stream = new StreamState();
+        Page page = new Page();
+        Packet packet = new Packet();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sync.wrap(clip);
+        boolean first = true;
+        int got;
+        while ((got = sync.pageout(page)) != 0) {
+            if (got < 0) {
+                continue;
+            }
+            if (mapped && (page.base == null || sync.data != null)) {
+                return null;
+            }
+            if (first) {
+                stream.init(page.serialno());
+                first = false;
+            }
+            stream.pagein(page);
+            while (stream.packetout(packet) == 1) {
+                out.write(packet.packet_base, packet.packet, packet.bytes);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "clips");
+        String[] names = dir.list((d, n) -> n.endsWith(".ogg"));
+        Arrays.sort(names);
+        boolean ok = true;
+        long bytes = 0;
+        for (String name : names) {
+            File f = new File(dir, name);
+            MappedByteBuffer map;
+            try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                map = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            }
+            byte[] heap = packets(ByteBuffer.wrap(Files.readAllBytes(f.toPath())), false);
+            byte[] mapped = packets(map, true);
+            if (mapped == null) {
+                System.out.println(name + ": SyncState copied some of the mapping");
+                ok = false;
+            } else if (!Arrays.equals(heap, mapped)) {
+                System.out.println(name + ": the packets differ from those read from the heap");
+                ok = false;
+            } else if (map.position() != 0) {
+                System.out.println(name + ": wrap moved the buffer's position");
+                ok = false;
+            }
+            bytes += map.capacity();
+        }
+        System.out.println(ok ? names.length + " clips, " + bytes
+                + " bytes mapped, all read in place" : "FAILED");
+    }
+}
@@ -0,0 +1,87 @@
+package com.jcraft.jorbis;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Check that VorbisFile.read allocates nothing once it is going: decode
+ * every clip in a directory, skip the first few reads of each (they size
+ * the decoder's buffers) and count the bytes the thread allocates in the
+ * rest. In this package because read(byte[], ...) is package private.
+ * Usage: java com.jcraft.jorbis.TestReadAllocation [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestReadAllocation {
+    static final int WARM = 8; // reads left out at the start of each clip
+
+    static final com.sun.management.ThreadMXBean THREADS
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long allocated() {
+        return THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /*
+     * @return bytes allocated by read() after the first WARM calls, or
+     * the number of reads in reads[0] if it is not null
+     */
+    static long decode(String file, byte[] buffer, long self, int[] reads) throws Exception {
+        VorbisFile vf = new VorbisFile(file);
+        long bytes = 0;
+        int n = 0;
+        for (;; n++) {
+            long t = allocated();
+            int got = vf.read(buffer, buffer.length, 0, 2, 1, null);
+            long a = allocated() - t - self;
+            if (got <= 0) {
+                break;
+            }
+            if (n >= WARM) {
+                bytes += a;
+            }
+        }
+        vf.close();
+        if (reads != null) {
+            reads[0] = n;
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File[] files = new File(args.length > 0 ? args[0] : "clips").listFiles((f, n) -> n.endsWith(".ogg"));
+        Arrays.sort(files);
+        byte[] buffer = new byte[4096];
+
+        // what asking costs, once the calls are compiled
+        long self = Long.MAX_VALUE;
+        for (int i = 0; i < 100000; i++) {
+            long t = allocated();
+            self = Math.min(self, allocated() - t);
+        }
+        for (int round = 0; round < 3; round++) { // let the JIT settle
+            for (File f : files) {
+                decode(f.getPath(), buffer, self, null);
+            }
+        }
+
+        boolean ok = true;
+        long reads = 0;
+        int[] count = new int[1];
+        for (File f : files) {
+            // the better of two runs, as the JVM itself now and then
+            // allocates on this thread
+            long bytes = Math.min(decode(f.getPath(), buffer, self, count),
+                    decode(f.getPath(), buffer, self, count));
+            reads += count[0];
+            if (bytes != 0) {
+                System.out.println(f.getName() + ": " + bytes + " bytes allocated in "
+                        + (count[0] - WARM) + " reads");
+                ok = false;
+            }
+        }
+        System.out.println(ok ? reads + " reads of " + files.length + " clips, 0 bytes allocated per read"
+                : "FAILED");
+    }
+}
@@ -0,0 +1,99 @@
+package com.jcraft.jorbis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Check the 16 bit samples VorbisFile.read hands out, signed and unsigned
+ * in both byte orders, byte for byte against the conversion read did
+ * before it went through Pcm16: scaled by 32768, a half added and
+ * truncated, then clamped. The reference decodes the same clip with a
+ * second VorbisFile and converts its floats with that loop. In this
+ * package because read(byte[], ...) is package private.
+ * Usage: java com.jcraft.jorbis.TestReadConversion [clips directory]
+ *
+ * @author dkruger
+ */
+public class TestReadConversion {
+    static byte[] read(String file, boolean bigendian, boolean signed) throws Exception {
+        VorbisFile vf = new VorbisFile(file);
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = vf.read(buffer, buffer.length, bigendian ? 1 : 0, 2, signed ? 1 : 0, null)) > 0) {
+            pcm.write(buffer, 0, n);
+        }
+        vf.close();
+        return pcm.toByteArray();
+    }
+
+    /*
+     * The baseline loop of VorbisFile.read, over the same decoder
+     */
+    static byte[] baseline(String file, boolean bigendian, boolean signed) throws Exception {
+        VorbisFile vf = new VorbisFile(file);
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        float[][][] p = new float[1][][];
+        int off = signed ? 0 : 32768;
+        while (true) {
+            if (vf.decode_ready) {
+                int channels = vf.vd.vi.channels;
+                int[] index = new int[channels];
+                int samples = vf.vd.synthesis_pcmout(p, index);
+                if (samples != 0) {
+                    for (int j = 0; j < samples; j++) {
+                        for (int i = 0; i < channels; i++) {
+                            int val = (int) (p[0][i][index[i] + j] * 32768. + 0.5);
+                            if (val > 32767) {
+                                val = 32767;
+                            } else if (val < -32768) {
+                                val = -32768;
+                            }
+                            val += off;
+                            if (bigendian) {
+                                pcm.write(val >>> 8);
+                                pcm.write(val);
+                            } else {
+                                pcm.write(val);
+                                pcm.write(val >>> 8);
+                            }
+                        }
+                    }
+                    vf.vd.synthesis_read(samples);
+                    continue;
+                }
+            }
+            if (vf.process_packet(1) <= 0) {
+                break;
+            }
+        }
+        vf.close();
+        return pcm.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "clips");
+        String[] names = dir.list((d, n) -> n.endsWith(".ogg"));
+        Arrays.sort(names);
+        boolean ok = true;
+        int checked = 0;
+        for (String name : names) {
+            String file = new File(dir, name).getPath();
+            for (int mode = 0; mode < 4; mode++) {
+                boolean bigendian = (mode & 1) != 0, signed = (mode & 2) != 0;
+                byte[] got = read(file, bigendian, signed);
+                byte[] expected = baseline(file, bigendian, signed);
+                int at = Arrays.mismatch(got, expected);
+                if (at >= 0) {
+                    System.out.printf("%s, %s %s endian: differs at byte %d of %d%n", name,
+                            signed ? "signed" : "unsigned", bigendian ? "big" : "little", at,
+                            expected.length);
+                    ok = false;
+                }
+                checked++;
+            }
+        }
+        System.out.println(ok ? checked + " reads of " + names.length + " clips, all as before" : "FAILED");
+    }
+}
@@ -0,0 +1,159 @@
+package com.jcraft.jorbis;
+
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.SyncState;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Seek around in clips with VorbisFile.pcm_seek, bisecting and with a
+ * SeekIndex sidecar, check that both land on the same samples as decoding
+ * from the start, and count the chunks each seek reads. The clips are
+ * copied to a temporary directory for their sidecars, along with one file
+ * of two clips chained. A file of two clips multiplexed, whose pages take
+ * turns, must be refused an index. Usage: java com.jcraft.jorbis.TestSeekIndex
+ * [clips directory] [seeks per clip]
+ *
+ * @author dkruger
+ */
+public class TestSeekIndex {
+    static byte[] decode(VorbisFile vf) {
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = vf.read(buffer, buffer.length, 0, 2, 1, null)) > 0) {
+            pcm.write(buffer, 0, n);
+        }
+        return pcm.toByteArray();
+    }
+
+    /*
+     * @return chunks read per seek, or -1 if a seek lands on the wrong samples
+     */
+    static double seek(String file, byte[] pcm, int channels, long[] positions) throws Exception {
+        VorbisFile vf = new VorbisFile(file);
+        byte[] buffer = new byte[2 * channels * 256];
+        int reads = 0;
+        for (long pos : positions) {
+            int before = vf.reads;
+            if (vf.pcm_seek(pos) != 0) {
+                System.out.println(file + ": pcm_seek(" + pos + ") failed");
+                return -1;
+            }
+            reads += vf.reads - before;
+            int n = vf.read(buffer, buffer.length, 0, 2, 1, null);
+            int at = (int) (pos * 2 * channels);
+            if (n <= 0 || !Arrays.equals(buffer, 0, n, pcm, at, at + n)) {
+                System.out.println(file + ": wrong samples after pcm_seek(" + pos + ")");
+                return -1;
+            }
+        }
+        vf.close();
+        return (double) reads / positions.length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : "clips");
+        int seeks = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        File tmp = Files.createTempDirectory("TestSeekIndex").toFile();
+        String[] names = dir.list((d, n) -> n.endsWith(".ogg"));
+        Arrays.sort(names);
+        File[] files = new File[names.length + 1];
+        for (int i = 0; i < names.length; i++) {
+            files[i] = new File(tmp, names[i]);
+            Files.copy(new File(dir, names[i]).toPath(), files[i].toPath());
+        }
+        // a chained file: two streams one after the other
+        files[names.length] = new File(tmp, "chained.ogg");
+        try (FileOutputStream out = new FileOutputStream(files[names.length])) {
+            out.write(Files.readAllBytes(new File(dir, "bell.ogg").toPath()));
+            out.write(Files.readAllBytes(new File(dir, "shotgun.ogg").toPath()));
+        }
+
+        Random r = new Random(1);
+        boolean ok = true;
+        double bisecting = 0, indexed = 0;
+        int tested = 0;
+        for (File f : files) {
+            String file = f.getPath();
+            VorbisFile vf = new VorbisFile(file);
+            int channels = vf.getInfo(0).channels;
+            long total = vf.pcm_total(-1);
+            byte[] pcm = decode(vf);
+            vf.close();
+            if (pcm.length != total * 2 * channels) {
+                System.out.println(f.getName() + ": decoded " + pcm.length / (2 * channels)
+                        + " samples of " + total);
+                ok = false;
+                continue;
+            }
+            long[] positions = new long[seeks];
+            for (int i = 0; i < seeks; i++) {
+                positions[i] = (long) (r.nextDouble() * (total - 256));
+            }
+
+            double a = seek(file, pcm, channels, positions);
+            SeekIndex x = SeekIndex.create(file, 1);
+            VorbisFile iv = new VorbisFile(file);
+            if (iv.index == null || iv.links != x.getLinks() || iv.pcm_total(-1) != total) {
+                System.out.println(f.getName() + ": the index was not used or does not match");
+                ok = false;
+            }
+            iv.close();
+            double b = seek(file, pcm, channels, positions);
+            if (a < 0 || b < 0) {
+                ok = false;
+                continue;
+            }
+            bisecting += a;
+            indexed += b;
+            tested++;
+        }
+        // the pages of a bell and a shotgun taking turns: not a chain
+        File mux = new File(tmp, "multiplexed.ogg");
+        try (FileOutputStream out = new FileOutputStream(mux)) {
+            SyncState a = new SyncState(), b = new SyncState();
+            byte[] bell = Files.readAllBytes(new File(dir, "bell.ogg").toPath());
+            byte[] shotgun = Files.readAllBytes(new File(dir, "shotgun.ogg").toPath());
+            a.wrap(bell, 0, bell.length);
+            b.wrap(shotgun, 0, shotgun.length);
+            Page page = new Page();
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (SyncState s : new SyncState[] {a, b}) {
+                    if (s.pageout(page) == 1) {
+                        out.write(page.header_base, page.header, page.header_len);
+                        out.write(page.body_base, page.body, page.body_len);
+                        more = true;
+                    }
+                }
+            }
+        }
+        try {
+            SeekIndex.scan(mux.getPath(), 1);
+            System.out.println(mux.getName() + ": indexed as a chain");
+            ok = false;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        try {
+            SeekIndex.scan(files[0].getPath(), 0);
+            System.out.println("indexed every 0th page");
+            ok = false;
+        } catch (IllegalArgumentException e) {
+        }
+        System.out.printf("chunks read per seek: %.1f bisecting, %.1f with the index%n",
+                bisecting / tested, indexed / tested);
+        System.out.println(ok ? tested + " files, every seek landed on the right samples" : "FAILED");
+        for (File f : tmp.listFiles()) {
+            f.delete();
+        }
+        tmp.delete();
+    }
+}